@@ -0,0 +1,23 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Description: 缓存相关配置
+ * @author: coderMartin
+ * @date: 2022-12-14
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 逻辑过期缓存使用的编解码器，换成 new JsonCacheCodec() 即可使用原来的RedisData格式
+     */
+    @Bean
+    public CacheCodec cacheCodec() {
+        return new BinaryCacheCodec();
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * @Description: 项目启动后在后台预热店铺缓存，避免Redis被清空或新部署后查不到店铺
+ * @author: coderMartin
+ * @date: 2022-12-16
+ */
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        shopService.warmUpCache();
+    }
+}
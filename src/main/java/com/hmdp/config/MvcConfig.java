@@ -1,7 +1,13 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.CacheMetrics;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.ResponseBytesCache;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -20,13 +26,22 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ResponseBytesCache responseBytesCache;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 注册拦截器，配置路径
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
                         "/shop/**",
-                        "/voucher/**",
+                        "/voucher/list/**",
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
@@ -35,5 +50,17 @@ public class MvcConfig implements WebMvcConfigurer {
                 ).order(1);
 
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+
+        // 运维接口只允许管理员调用，在登录校验之后；新增优惠券的接口与原来一样只需要登录
+        registry.addInterceptor(new AdminInterceptor())
+                .addPathPatterns("/cache/**", "/voucher/seckill/*", "/voucher/seckill/*/stock")
+                .order(2);
+
+        // 响应缓存需要在登录校验之后，才能判断当前用户是否登录
+        registry.addInterceptor(new ResponseCacheInterceptor(responseBytesCache, cacheMetrics)).order(3);
+
+        // 秒杀准入控制，在登录校验之后，未登录的请求不消耗令牌
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                .addPathPatterns("/voucher-order/seckill/**").order(4);
     }
 }
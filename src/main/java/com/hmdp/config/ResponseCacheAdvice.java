@@ -0,0 +1,63 @@
+package com.hmdp.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheResponse;
+import com.hmdp.utils.ResponseBytesCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 把标注了@CacheResponse的接口返回的成功Result序列化后写入响应缓存
+ * @author: coderMartin
+ * @date: 2022-12-27
+ */
+@Slf4j
+@ControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object> {
+
+    @Resource
+    private ResponseBytesCache responseBytesCache;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(CacheResponse.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        // 1.拦截器没有设置key说明这次请求不需要缓存
+        if (!(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        String key = (String) ((ServletServerHttpRequest) request).getServletRequest()
+                .getAttribute(ResponseBytesCache.KEY_ATTRIBUTE);
+        // 2.只缓存成功的结果
+        if (key == null || !(body instanceof Result) || !Boolean.TRUE.equals(((Result) body).getSuccess())) {
+            return body;
+        }
+        try {
+            CacheResponse cacheResponse = returnType.getMethodAnnotation(CacheResponse.class);
+            responseBytesCache.put(key, objectMapper.writeValueAsBytes(body), cacheResponse.ttl(), TimeUnit.SECONDS);
+        } catch (JsonProcessingException e) {
+            log.warn("序列化响应失败，key={}", key, e);
+        }
+        return body;
+    }
+}
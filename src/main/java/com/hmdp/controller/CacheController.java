@@ -0,0 +1,70 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * @Description: 缓存管理接口，需要登录后访问
+ * @author: coderMartin
+ * @date: 2022-12-16
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 手动触发店铺缓存预热
+     * @return 预热进度
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShop() {
+        return shopService.warmUpCache();
+    }
+
+    /**
+     * 店铺类型变更后刷新所有节点的店铺类型快照
+     * @return 新的版本号
+     */
+    @PostMapping("/refresh/shop-type")
+    public Result refreshShopType() {
+        return shopTypeService.refreshTypeList();
+    }
+
+    /**
+     * 查询各个缓存最近一次预热的进度
+     */
+    @GetMapping("/warm-up/progress")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmer.getProgress());
+    }
+
+    /**
+     * 查询本节点当前的热点key
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+}
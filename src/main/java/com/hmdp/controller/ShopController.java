@@ -6,12 +6,15 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheResponse;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.boot.json.GsonJsonParser;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -33,10 +36,21 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
+    @CacheResponse(key = CACHE_SHOP_KEY)
     public Result queryShopById(@PathVariable("id") Long id) {
         return shopService.queryById(id);
     }
 
+    /**
+     * 根据id查询商铺卡片信息，只包含名称、人均价格和评分
+     * @param id 商铺id
+     * @return 商铺卡片数据
+     */
+    @GetMapping("/{id}/card")
+    public Result queryShopCardById(@PathVariable("id") Long id) {
+        return shopService.queryCardById(id);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
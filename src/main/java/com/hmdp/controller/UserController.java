@@ -9,6 +9,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterGuard;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
@@ -17,6 +18,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -36,6 +39,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
     /**
      * 发送手机验证码
      */
@@ -77,6 +83,10 @@ public class UserController {
 
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId) {
+        // 布隆过滤器判断用户一定不存在，不再查询数据库
+        if (!bloomFilterGuard.mightContain(CACHE_USER_KEY, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         UserInfo info = userInfoService.getById(userId);
         if (info == null) {
@@ -97,8 +107,8 @@ public class UserController {
      */
     @GetMapping("/{id}")
     public Result BloggerInfo(@PathVariable("id") Long userId) {
-        // 1.查询用户信息
-        User user = userService.getById(userId);
+        // 1.查询用户信息，布隆过滤器判断用户一定不存在时不查询数据库
+        User user = bloomFilterGuard.mightContain(CACHE_USER_KEY, userId) ? userService.getById(userId) : null;
         // 2.判断是否为空
         if (user == null) {
             // 没有详情，应该是第一次查看详情
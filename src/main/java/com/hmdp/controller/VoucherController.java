@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillReconciler;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -23,6 +24,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -45,6 +49,43 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 修改秒杀券
+     * @param id 优惠券id
+     * @param voucher 优惠券信息，包含秒杀时间
+     */
+    @PutMapping("seckill/{id}")
+    public Result updateSeckillVoucher(@PathVariable("id") Long id, @RequestBody Voucher voucher) {
+        voucher.setId(id);
+        return voucherService.updateSeckillVoucher(voucher);
+    }
+
+    /**
+     * 补充秒杀券库存
+     * @param id 优惠券id
+     * @param count 补充的数量
+     */
+    @PutMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long id, @RequestParam("count") Integer count) {
+        return voucherService.addSeckillStock(id, count);
+    }
+
+    /**
+     * 在后台立即执行一次秒杀对账
+     */
+    @PostMapping("seckill/reconcile")
+    public Result reconcileSeckill() {
+        return seckillReconciler.reconcileAsync() ? Result.ok() : Result.fail("对账正在执行中");
+    }
+
+    /**
+     * 查询每个秒杀券最近一次的对账结果
+     */
+    @GetMapping("seckill/reconcile")
+    public Result queryReconcileReports() {
+        return Result.ok(seckillReconciler.getReports());
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 一个秒杀券Redis与数据库的对账结果
+ */
+@Data
+public class ReconcileReport {
+    private Long voucherId;
+    private LocalDateTime checkTime;
+    // Redis中的剩余库存和下单用户数
+    private long redisStock;
+    private long redisBuyers;
+    // 数据库中的剩余库存和订单数
+    private long dbStock;
+    private long dbOrders;
+    // (Redis库存+Redis下单用户数)-(数据库库存+数据库订单数)，正常情况下为0
+    private long stockDrift;
+    // Redis中下了单、连续两次对账都没有在数据库中找到订单的用户数
+    private long missingInDb;
+    // 数据库中有订单、Redis下单集合中没有的用户数
+    private long missingInRedis;
+    // 本次修复的数量
+    private long repaired;
+}
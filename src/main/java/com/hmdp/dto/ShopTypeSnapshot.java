@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，body是已经序列化好的响应体，直接写回给客户端
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    // 版本号，每次刷新递增
+    private final long version;
+    // 不可修改的列表
+    private final List<ShopType> typeList;
+    private final String etag;
+    private final byte[] body;
+    // 加载时间，用于本地兜底过期
+    private final long loadTime;
+}
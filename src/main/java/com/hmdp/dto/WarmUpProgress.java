@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存预热的进度
+ */
+@Data
+public class WarmUpProgress {
+    private String prefixKey;
+    private LocalDateTime startTime;
+    // 已从数据库读取的条数
+    private final AtomicLong loaded = new AtomicLong();
+    // 已写入Redis的条数
+    private final AtomicLong written = new AtomicLong();
+    // 写入失败的批次数
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile long elapsedMillis;
+    private volatile boolean finished;
+
+    /**
+     * 每秒写入的条数
+     */
+    public long getThroughput() {
+        return elapsedMillis == 0 ? 0 : written.get() * 1000 / elapsedMillis;
+    }
+}
@@ -0,0 +1,76 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效日志，与业务数据的修改在同一个事务中写入
+ * </p>
+ *
+ * @author coderMartin
+ * @since 2022-12-26
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_change_log")
+public class CacheChangeLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_DONE = 1;
+    public static final int STATUS_FAILED = 2;
+    public static final int STATUS_PROCESSING = 3;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 需要删除的缓存key
+     */
+    private String cacheKey;
+
+    /**
+     * 状态，0：待删除；1：已删除；2：重试次数用完；3：处理中
+     */
+    private Integer status;
+
+    /**
+     * 已重试的次数
+     */
+    private Integer retryCount;
+
+    /**
+     * 下次处理的时间；处理中时为认领的截止时间
+     */
+    private LocalDateTime nextRetryTime;
+
+    /**
+     * 认领令牌，每次批量认领生成一个，用来找出本次认领成功的日志
+     */
+    private String claimToken;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+
+}
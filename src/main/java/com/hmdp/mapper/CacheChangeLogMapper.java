@@ -0,0 +1,16 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.CacheChangeLog;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author coderMartin
+ * @since 2022-12-26
+ */
+public interface CacheChangeLogMapper extends BaseMapper<CacheChangeLog> {
+
+}
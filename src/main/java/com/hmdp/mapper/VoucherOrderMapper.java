@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条INSERT IGNORE语句批量插入秒杀订单，主键或(user_id, seckill_voucher_id)唯一索引冲突的订单被忽略
+     * @return 实际插入的条数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
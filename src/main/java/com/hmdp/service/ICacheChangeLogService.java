@@ -0,0 +1,20 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheChangeLog;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author coderMartin
+ * @since 2022-12-26
+ */
+public interface ICacheChangeLogService extends IService<CacheChangeLog> {
+
+    /**
+     * 记录需要删除的缓存key，必须在修改业务数据的事务中调用；事务提交后异步删除缓存
+     */
+    void record(String... cacheKeys);
+}
@@ -16,7 +16,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result queryCardById(Long id);
+
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result warmUpCache();
 }
@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -15,4 +16,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    /**
+     * 获取店铺类型列表的快照，包含序列化好的响应体和ETag
+     */
+    ShopTypeSnapshot getTypeListSnapshot();
+
+    /**
+     * 店铺类型变更后调用：从数据库重新加载，写入Redis并通知所有节点刷新快照
+     */
+    Result refreshTypeList();
 }
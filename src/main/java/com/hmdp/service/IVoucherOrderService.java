@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -16,6 +19,27 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 查询当前用户秒杀订单的处理状态
+     */
+    Result queryOrderStatus(Long orderId);
+
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 对账发现订单丢失时，重新发送到订单消息队列；能找到原来的订单id时沿用原来的id，否则生成新的id
+     * @return 发送的订单id
+     */
+    long reenqueueOrder(Long voucherId, Long userId);
+
+    /**
+     * 订单消息还在pending-list或死信队列中的用户，这些订单没有丢失，只是还没处理完或者等待人工处理
+     */
+    Set<Long> inFlightUsers(Long voucherId);
+
+    /**
+     * 在一个事务中批量创建订单：每个优惠券扣减一次库存，所有订单一条INSERT插入
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -17,4 +17,14 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 修改秒杀券的时间、状态等信息，事务提交后同步Redis中的秒杀券元数据
+     */
+    Result updateSeckillVoucher(Voucher voucher);
+
+    /**
+     * 补充秒杀券库存，同时清除各节点的售罄标记
+     */
+    Result addSeckillStock(Long voucherId, Integer count);
 }
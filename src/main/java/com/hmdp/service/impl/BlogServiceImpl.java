@@ -15,6 +15,8 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterGuard;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -26,10 +28,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -50,10 +52,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
+        // 1.查询blog，布隆过滤器判断不存在的id不用查数据库
+        Blog blog = bloomFilterGuard.mightContain(CACHE_BLOG_KEY, id) ? getById(id) : null;
         if (blog == null) {
             return Result.fail("该笔记不存在...");
         }
@@ -100,6 +108,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 2.1如果用户没有对该blog点赞过，则更新数据库表tb_blog的liked+1
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", blogId).update();
             if (isSuccess) {
+                // 点赞数变化，删除笔记缓存
+                cacheClient.delete(CACHE_BLOG_KEY + blogId);
                 // 2.2将用户写入redis sorted_set; ZADD key score member  分数为时间戳
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
             }
@@ -108,6 +118,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 3.1用户已经对对该blog点赞过，再次点击，则更新数据库表tb_blog的liked-1
             boolean isSuccess = update().setSql("liked = liked - 1").eq("id", blogId).update();
             if (isSuccess) {
+                cacheClient.delete(CACHE_BLOG_KEY + blogId);
                 // 3.2将用户从redis sorted_set集合中移除
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
             }
@@ -160,6 +171,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("保存笔记失败...");
         }
+        bloomFilterGuard.add(CACHE_BLOG_KEY, blog.getId());
 
         // 3.获取当前登录用户的所有粉丝
         List<Follow> follows = followService.query().eq("follow_user_id", userId).list();
@@ -209,10 +221,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
 
-        // 4.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        String lastSql = "ORDER BY FIELD(id," + idStr + ")";
-        List<Blog> blogList = query().in("id", ids).last(lastSql).list();
+        // 4.根据id批量查询blog，先批量查缓存，未命中的再用一次IN查询数据库，结果与ids顺序一致
+        List<Blog> blogList = cacheClient.queryBatchWithLogicExpire(CACHE_BLOG_KEY, ids, Blog.class,
+                this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
         // 5.每个blog需要添加数据库中没有的信息：发布博主的信息，和博文有没有被当前登录用户点赞
         for (Blog blog : blogList) {
             // 查询发布blog的blogger信息
@@ -0,0 +1,231 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheChangeLog;
+import com.hmdp.mapper.CacheChangeLogMapper;
+import com.hmdp.service.ICacheChangeLogService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * 缓存失效日志 服务实现类
+ * 业务事务中写入失效日志，事务提交后由后台线程批量删除缓存：
+ * 1.删除失败的按指数退避重试，超过最大次数标记为失败
+ * 2.删除成功后延迟一段时间再删一次(延迟双删)，清掉与更新并发的重建写回的旧数据
+ * 3.多个节点同时轮询时，每批日志先用一条状态CAS的update认领，只有认领成功的节点处理；节点宕机时认领超时后由其他节点重新认领
+ * 4.定期清理已删除超过保留天数的日志
+ * </p>
+ *
+ * @author coderMartin
+ * @since 2022-12-26
+ */
+@Slf4j
+@Service
+public class CacheChangeLogServiceImpl extends ServiceImpl<CacheChangeLogMapper, CacheChangeLog> implements ICacheChangeLogService {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 单线程执行，定时轮询、事务提交后的唤醒、延迟双删都在这个线程中串行执行
+     */
+    private final ScheduledExecutorService relayExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-relay-", true));
+
+    @PostConstruct
+    private void init() {
+        relayExecutor.scheduleWithFixedDelay(this::relay, CACHE_RELAY_INTERVAL, CACHE_RELAY_INTERVAL, TimeUnit.MILLISECONDS);
+        relayExecutor.scheduleWithFixedDelay(this::purge, CACHE_RELAY_PURGE_INTERVAL, CACHE_RELAY_PURGE_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        relayExecutor.shutdown();
+    }
+
+    @Override
+    public void record(String... cacheKeys) {
+        // 1.与业务数据在同一个事务中写入失效日志
+        List<CacheChangeLog> logs = new ArrayList<>(cacheKeys.length);
+        for (String cacheKey : cacheKeys) {
+            logs.add(new CacheChangeLog()
+                    .setCacheKey(cacheKey)
+                    .setStatus(CacheChangeLog.STATUS_PENDING)
+                    .setRetryCount(0)
+                    .setNextRetryTime(LocalDateTime.now()));
+        }
+        saveBatch(logs);
+
+        // 2.事务提交后立即唤醒后台线程，不必等下一次轮询
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    relayExecutor.execute(CacheChangeLogServiceImpl.this::relay);
+                }
+            });
+        } else {
+            relayExecutor.execute(this::relay);
+        }
+    }
+
+    /**
+     * 批量处理到期的失效日志
+     */
+    private void relay() {
+        try {
+            while (true) {
+                // 1.查询到期的待处理日志，以及认领超时的处理中日志
+                List<CacheChangeLog> candidates = query()
+                        .in("status", CacheChangeLog.STATUS_PENDING, CacheChangeLog.STATUS_PROCESSING)
+                        .le("next_retry_time", LocalDateTime.now())
+                        .orderByAsc("id")
+                        .last("limit " + CACHE_RELAY_BATCH_SIZE)
+                        .list();
+                if (candidates.isEmpty()) {
+                    return;
+                }
+
+                // 1.1整批认领，其他节点已经认领的跳过
+                List<CacheChangeLog> logs = claim(candidates);
+                if (logs.isEmpty()) {
+                    if (candidates.size() < CACHE_RELAY_BATCH_SIZE) {
+                        return;
+                    }
+                    continue;
+                }
+
+                // 2.批量删除缓存
+                Set<String> keys = logs.stream().map(CacheChangeLog::getCacheKey).collect(Collectors.toSet());
+                List<Long> ids = logs.stream().map(CacheChangeLog::getId).collect(Collectors.toList());
+                try {
+                    cacheClient.deleteBatch(keys);
+                } catch (Exception e) {
+                    log.warn("删除缓存失败，稍后重试，keys={}", keys, e);
+                    retryLater(logs);
+                    return;
+                }
+
+                // 3.标记为已删除
+                update().set("status", CacheChangeLog.STATUS_DONE).in("id", ids).update();
+
+                // 4.延迟双删
+                if (CACHE_DOUBLE_DELETE_DELAY > 0) {
+                    relayExecutor.schedule(() -> deleteAgain(keys), CACHE_DOUBLE_DELETE_DELAY, TimeUnit.MILLISECONDS);
+                }
+
+                if (candidates.size() < CACHE_RELAY_BATCH_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("处理缓存失效日志异常", e);
+        }
+    }
+
+    /**
+     * 认领日志：一条update批量把status改为处理中，next_retry_time改为认领的截止时间，并写入本次的认领令牌
+     * update ... set claim_token = ? where id in (...) and status in (待删除, 处理中) and next_retry_time <= now，
+     * 每条日志只有一个节点能更新成功，再按令牌查出本次认领成功的日志
+     */
+    private List<CacheChangeLog> claim(List<CacheChangeLog> candidates) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime deadline = now.plusNanos(TimeUnit.MILLISECONDS.toNanos(CACHE_RELAY_CLAIM_TIMEOUT));
+        String claimToken = UUID.fastUUID().toString(true);
+        List<Long> ids = candidates.stream().map(CacheChangeLog::getId).collect(Collectors.toList());
+        // 1.一次update认领整批日志
+        int claimedCount = getBaseMapper().update(null, new UpdateWrapper<CacheChangeLog>()
+                .set("status", CacheChangeLog.STATUS_PROCESSING)
+                .set("next_retry_time", deadline)
+                .set("claim_token", claimToken)
+                .in("id", ids)
+                .in("status", CacheChangeLog.STATUS_PENDING, CacheChangeLog.STATUS_PROCESSING)
+                .le("next_retry_time", now));
+        // 2.全部认领成功时直接返回，部分成功时按令牌查出本次认领的日志
+        if (claimedCount == 0) {
+            return Collections.emptyList();
+        }
+        if (claimedCount == ids.size()) {
+            return candidates;
+        }
+        Set<Long> claimedIds = query()
+                .select("id")
+                .in("id", ids)
+                .eq("claim_token", claimToken)
+                .list()
+                .stream()
+                .map(CacheChangeLog::getId)
+                .collect(Collectors.toSet());
+        return candidates.stream().filter(changeLog -> claimedIds.contains(changeLog.getId())).collect(Collectors.toList());
+    }
+
+    /**
+     * 清理已删除超过保留天数的日志，每次最多删除一批，避免长时间锁表
+     */
+    private void purge() {
+        try {
+            LocalDateTime before = LocalDateTime.now().minusDays(CACHE_RELAY_RETENTION_DAYS);
+            int deleted;
+            do {
+                deleted = getBaseMapper().delete(new QueryWrapper<CacheChangeLog>()
+                        .eq("status", CacheChangeLog.STATUS_DONE)
+                        .lt("update_time", before)
+                        .last("limit " + CACHE_RELAY_PURGE_BATCH_SIZE));
+            } while (deleted >= CACHE_RELAY_PURGE_BATCH_SIZE);
+        } catch (Exception e) {
+            log.error("清理缓存失效日志异常", e);
+        }
+    }
+
+    /**
+     * 按指数退避设置下次处理时间，超过最大重试次数标记为失败
+     */
+    private void retryLater(List<CacheChangeLog> logs) {
+        for (CacheChangeLog changeLog : logs) {
+            int retryCount = changeLog.getRetryCount() + 1;
+            CacheChangeLog update = new CacheChangeLog().setId(changeLog.getId()).setRetryCount(retryCount);
+            if (retryCount > CACHE_RELAY_MAX_RETRY) {
+                log.error("删除缓存重试次数用完，key={}", changeLog.getCacheKey());
+                update.setStatus(CacheChangeLog.STATUS_FAILED);
+            } else {
+                // 放回待删除状态，到期后重新认领
+                update.setStatus(CacheChangeLog.STATUS_PENDING);
+                long delay = CACHE_RELAY_INTERVAL << Math.min(retryCount, 10);
+                update.setNextRetryTime(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(delay)));
+            }
+            updateById(update);
+        }
+    }
+
+    private void deleteAgain(Set<String> keys) {
+        try {
+            cacheClient.deleteBatch(keys);
+        } catch (Exception e) {
+            // 第二次删除失败影响不大，缓存最终会因逻辑过期被重建
+            log.warn("延迟双删失败，keys={}", keys, e);
+        }
+    }
+}
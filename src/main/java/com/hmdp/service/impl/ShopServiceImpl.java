@@ -9,12 +9,16 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheChangeLogService;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterGuard;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -22,13 +26,14 @@ import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -41,20 +46,29 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    /**
+     * 店铺卡片需要的字段
+     */
+    private static final List<String> SHOP_CARD_FIELDS = Arrays.asList("name", "avgPrice", "score");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
 
-    /**
-     * 线程池
-     */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private ICacheChangeLogService cacheChangeLogService;
 
     @Override
     public Result queryById(Long id) {
@@ -69,7 +83,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 逻辑过期解决缓存击穿
         //Shop shop = queryWithLogicExpire(id);
         // 使用工具类，逻辑过期解决缓存击穿
-        Shop shop = cacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //Shop shop = cacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        // 本地缓存 + Redis逻辑过期的二级缓存；hash模式下使用hash结构的逻辑过期缓存
+        Shop shop = CACHE_SHOP_HASH_MODE
+                ? cacheClient.queryHashWithLogicExpire(CACHE_SHOP_HASH_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                : cacheClient.queryWithLocalCache(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("商铺不存在...");
         }
@@ -80,6 +99,47 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
     @Override
+    public Result queryCardById(Long id) {
+        // 0.布隆过滤器判断店铺不存在，直接返回
+        if (!bloomFilterGuard.mightContain(CACHE_SHOP_KEY, id)) {
+            return Result.fail("商铺不存在...");
+        }
+
+        // 1.hash模式下用HMGET只读取卡片需要的字段
+        if (CACHE_SHOP_HASH_MODE) {
+            Map<String, String> card = cacheClient.queryHashFields(CACHE_SHOP_HASH_KEY, id, SHOP_CARD_FIELDS,
+                    this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            if (card != null) {
+                return Result.ok(card);
+            }
+        }
+
+        // 2.hash不存在或者不是hash模式，查询完整的店铺再取出卡片字段
+        Shop shop = CACHE_SHOP_HASH_MODE
+                ? cacheClient.queryHashWithLogicExpire(CACHE_SHOP_HASH_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                : cacheClient.queryWithLocalCache(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return Result.fail("商铺不存在...");
+        }
+        Map<String, String> card = new LinkedHashMap<>(SHOP_CARD_FIELDS.size());
+        card.put("name", shop.getName());
+        card.put("avgPrice", shop.getAvgPrice() == null ? null : shop.getAvgPrice().toString());
+        card.put("score", shop.getScore() == null ? null : shop.getScore().toString());
+        return Result.ok(card);
+    }
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean isSuccess = super.save(shop);
+        if (isSuccess) {
+            // 新增的店铺id加入布隆过滤器
+            bloomFilterGuard.add(CACHE_SHOP_KEY, shop.getId());
+        }
+        return isSuccess;
+    }
+
+    @Override
+    @Transactional
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
@@ -87,10 +147,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
 
         // 1.更新数据库
-        updateById(shop);
+        boolean isSuccess = updateById(shop);
+        if (isSuccess) {
+            bloomFilterGuard.add(CACHE_SHOP_KEY, id);
+        }
 
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.在同一个事务中写入缓存失效日志，提交后由后台线程删除缓存，失败会重试，并延迟再删一次
+        cacheChangeLogService.record(CACHE_SHOP_KEY + id);
+        // hash模式下只写入变化的字段，不删除整个缓存；必须等事务提交后再写，否则回滚时缓存里就是脏数据
+        if (CACHE_SHOP_HASH_MODE) {
+            String hashKey = CACHE_SHOP_HASH_KEY + id;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        cacheClient.updateHashFields(hashKey, shop);
+                    } catch (Exception e) {
+                        // 字段更新失败时删除整个hash，下次查询从数据库完整重建
+                        log.warn("更新hash缓存失败，删除缓存，key={}", hashKey, e);
+                        cacheClient.delete(hashKey);
+                    }
+                }
+            });
+        }
 
         return Result.ok();
     }
@@ -146,10 +225,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             distanceMap.put(shopIdStr, distance);
         });
 
-        // 5.根据店铺id查询店铺信息,要保证有序
-        String idStr = StrUtil.join(",", ids);
-        String lastSql = "ORDER BY FIELD(id," + idStr + ")";
-        List<Shop> shopList = query().in("id", ids).last(lastSql).list();
+        // 5.根据店铺id批量查询店铺信息,要保证有序；先批量查缓存，未命中的再用一次IN查询数据库
+        List<Shop> shopList = cacheClient.queryBatchWithLogicExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         for (Shop shop : shopList) {
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
         }
@@ -157,4 +235,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 6.返回结果
         return Result.ok(shopList);
     }
+
+    @Override
+    public Result warmUpCache() {
+        // 按id分页读取tb_shop：select * from tb_shop where id > lastId order by id limit 500
+        return Result.ok(cacheWarmer.warmUpAsync(CACHE_SHOP_KEY,
+                lastId -> query().gt("id", lastId).orderByAsc("id").last("limit " + CACHE_WARMUP_BATCH_SIZE).list(),
+                Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+    }
 }
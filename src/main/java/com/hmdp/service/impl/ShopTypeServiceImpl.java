@@ -1,19 +1,30 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -23,33 +34,121 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 店铺类型几乎不变，整个列表连同序列化好的响应体保存为一个不可变快照，读请求不再访问Redis
+     */
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        // 其他节点刷新了店铺类型，重新从Redis加载快照
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            long version = Long.parseLong(new String(message.getBody()));
+            ShopTypeSnapshot current = snapshot;
+            if (current == null || current.getVersion() < version) {
+                reload(version);
+            }
+        }, new ChannelTopic(CACHE_SHOP_TYPE_REFRESH_CHANNEL));
+    }
+
     @Override
     public Result queryTypeList() {
-        String key = CACHE_SHOP_TYPE_KEY;
-        // 1.查询redis中是否有缓存
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(key);
+        return Result.ok(getTypeListSnapshot().getTypeList());
+    }
+
+    @Override
+    public ShopTypeSnapshot getTypeListSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        // 1.快照存在且未超过兜底过期时间，直接返回
+        if (isFresh(current, 0)) {
+            return current;
+        }
+        // 2.不存在或已过期，重新加载
+        return reload(0);
+    }
 
-        // 2.如果有，直接返回
-        List<ShopType> typeList = null;
+    @Override
+    public Result refreshTypeList() {
+        // 1.查询数据库
+        List<ShopType> typeList = query().orderByAsc("sort").list();
+
+        // 2.写入Redis并递增版本号
+        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(typeList), CACHE_SHOP_TYPE_TTL, TimeUnit.HOURS);
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+
+        // 3.替换本节点快照，并通知其他节点
+        ShopTypeSnapshot newSnapshot = buildSnapshot(version, typeList);
+        snapshot = newSnapshot;
+        stringRedisTemplate.convertAndSend(CACHE_SHOP_TYPE_REFRESH_CHANNEL, version.toString());
+        return Result.ok(version);
+    }
+
+    /**
+     * 从Redis加载店铺类型列表生成快照，Redis中没有则查询数据库
+     *
+     * @param minVersion 快照至少要达到的版本号，收到刷新通知时传入通知中的版本号
+     */
+    private synchronized ShopTypeSnapshot reload(long minVersion) {
+        // 0.DoubleCheck：等待锁期间其他线程可能已经加载好了
+        ShopTypeSnapshot current = snapshot;
+        if (isFresh(current, minVersion)) {
+            return current;
+        }
+
+        // 1.用一次MGET同时查询列表和版本号，避免两次读取之间被其他节点刷新
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(CACHE_SHOP_TYPE_KEY, CACHE_SHOP_TYPE_VERSION_KEY));
+        String shopTypeJson = values == null ? null : values.get(0);
+        String versionStr = values == null ? null : values.get(1);
+        long version = versionStr == null ? 0L : Long.parseLong(versionStr);
+
+        // 2.如果有，直接生成快照
+        List<ShopType> typeList;
         if (shopTypeJson != null) {
             typeList = JSONUtil.toList(shopTypeJson, ShopType.class);
-            return Result.ok(typeList);
+        } else {
+            // 3.如果没有，查询数据库并写入redis
+            typeList = query().orderByAsc("sort").list();
+            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(typeList), CACHE_SHOP_TYPE_TTL, TimeUnit.HOURS);
         }
 
+        ShopTypeSnapshot newSnapshot = buildSnapshot(version, typeList);
+        snapshot = newSnapshot;
+        return newSnapshot;
+    }
 
-        // 3.如果没有，查询数据库
-        typeList = query().orderByAsc("sort").list();
-
-        // 4.把查询出的信息添加到redis中
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList));
+    /**
+     * 快照存在、未超过兜底过期时间，且版本号不低于minVersion
+     */
+    private static boolean isFresh(ShopTypeSnapshot current, long minVersion) {
+        return current != null
+                && current.getVersion() >= minVersion
+                && System.currentTimeMillis() - current.getLoadTime() < TimeUnit.MINUTES.toMillis(CACHE_SHOP_TYPE_LOCAL_TTL);
+    }
 
-        // 5.返回结果
-        return Result.ok(typeList);
+    private ShopTypeSnapshot buildSnapshot(long version, List<ShopType> typeList) {
+        byte[] body;
+        try {
+            // 与普通接口一样用Spring的ObjectMapper序列化Result，保证响应格式一致
+            body = objectMapper.writeValueAsBytes(Result.ok(typeList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        // ETag由内容摘要生成，各节点对同样的数据得到相同的ETag
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        return new ShopTypeSnapshot(version, Collections.unmodifiableList(typeList), etag, body, System.currentTimeMillis());
     }
 }
@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,31 +9,60 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderStatusRecorder;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockRouter;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -56,12 +86,29 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private MeterRegistry meterRegistry;
 
-    // 代理对象
+    @Resource
+    private OrderStatusRecorder orderStatusRecorder;
+
+    /**
+     * 注入自身的代理对象，消费线程调用事务方法时使用；不能在秒杀请求中用AopContext获取后再赋值，
+     * 否则没有处理过秒杀请求的节点，消费线程拿到的代理是null
+     */
+    @Resource
+    @Lazy
     private IVoucherOrderService proxy;
 
 
+    // 秒杀脚本返回值对应的提示：1库存不足、2重复下单、3未开始、4已结束、5已下架
+    private static final String[] SECKILL_FAIL_MESSAGES = {null, "库存不足", "不能重复下单", "秒杀尚未开始", "秒杀已经结束", "秒杀券已下架"};
+
     // 提前加载lua文件
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
@@ -76,25 +123,96 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 也可以理解为在spring容器初始化的时候执行该方法。
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1.创建所有分区的消费者组，stream不存在时一并创建(MKSTREAM)
+        for (int p = 0; p < SECKILL_ORDER_PARTITIONS; p++) {
+            createGroupIfAbsent(streamKey(p));
+        }
+        // 2.每个线程是一个独立的消费者，按分区分配要读取的stream
+        for (int i = 0; i < SECKILL_ORDER_WORKERS; i++) {
+            SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler(i));
+        }
+        // 3.定时认领超时的pending消息，并统计pending数量和消费延迟
+        pendingGauge = meterRegistry.gauge("seckill.orders.pending", new AtomicLong());
+        lagGauge = meterRegistry.gauge("seckill.orders.lag", new AtomicLong());
+        claimedCounter = meterRegistry.counter("seckill.orders.claimed");
+        deadLetterCounter = meterRegistry.counter("seckill.orders.dead_letter");
+        PENDING_RECOVERY_EXECUTOR.scheduleWithFixedDelay(new PendingOrderRecovery(),
+                SECKILL_PENDING_CHECK_INTERVAL, SECKILL_PENDING_CHECK_INTERVAL, TimeUnit.SECONDS);
     }
 
+    private static final ScheduledExecutorService PENDING_RECOVERY_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-recovery-", true));
+
+    // pending消息总数、消费延迟(毫秒)、被认领重新处理的消息数、转入死信队列的消息数
+    private AtomicLong pendingGauge;
+    private AtomicLong lagGauge;
+    private Counter claimedCounter;
+    private Counter deadLetterCounter;
+
     // 线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newFixedThreadPool(SECKILL_ORDER_WORKERS, new NamedThreadFactory("seckill-order-", false));
+
+    // 消费者名称前缀：主机名+进程号，保证每个节点的消费者互不相同
+    private static final String CONSUMER_PREFIX = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * 订单所在的stream，分区数为1时就是stream.orders，否则按优惠券id取模，与seckill.lua中一致
+     */
+    private static String streamKey(long partition) {
+        return SECKILL_ORDER_PARTITIONS == 1 ? SECKILL_ORDER_STREAM : SECKILL_ORDER_STREAM + ":" + partition;
+    }
+
+    private static String streamKeyOfVoucher(Long voucherId) {
+        return streamKey(voucherId % SECKILL_ORDER_PARTITIONS);
+    }
+
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        } catch (RedisSystemException e) {
+            // BUSYGROUP说明消费者组已经存在
+            String message = e.getMostSpecificCause().getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
 
     // 线程任务
     private class VoucherOrderHandler implements Runnable {
-        String queueName = "stream.orders";
+        private final Consumer consumer;
+        private final StreamOffset<String>[] lastConsumedOffsets;
+        private final StreamOffset<String>[] pendingOffsets;
+
+        @SuppressWarnings("unchecked")
+        VoucherOrderHandler(int index) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, CONSUMER_PREFIX + "-" + index);
+            // 分区多于线程时，一个线程读取多个分区；线程多于分区时，多个线程共同消费一个分区
+            List<String> streams = new ArrayList<>();
+            for (int p = 0; p < SECKILL_ORDER_PARTITIONS; p++) {
+                if (p % SECKILL_ORDER_WORKERS == index) {
+                    streams.add(streamKey(p));
+                }
+            }
+            if (streams.isEmpty()) {
+                streams.add(streamKey(index % SECKILL_ORDER_PARTITIONS));
+            }
+            this.lastConsumedOffsets = streams.stream()
+                    .map(s -> StreamOffset.create(s, ReadOffset.lastConsumed())).toArray(StreamOffset[]::new);
+            this.pendingOffsets = streams.stream()
+                    .map(s -> StreamOffset.create(s, ReadOffset.from("0"))).toArray(StreamOffset[]::new);
+        }
 
         @Override
         public void run() {
             while (true) {
                 try {
-                    // 1.获取redis消息队列中订单信息  XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
+                    // 1.批量获取redis消息队列中订单信息  XREADGROUP GROUP g1 host-i COUNT N BLOCK 2000 STREAMS s1 s2 ... > > ...
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            consumer,
+                            StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            lastConsumedOffsets
                     );
 
                     // 2.判断消息是否获取成功
@@ -103,140 +221,478 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         continue;
                     }
 
-                    // 2.2如果获取成功，可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 走处理订单的流程
-                    handleVoucherOrder(voucherOrder);
+                    // 2.2如果获取成功，在一个事务中批量下单
+                    List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+                    Map<String, List<RecordId>> recordIds = new HashMap<>();
+                    for (MapRecord<String, Object, Object> record : list) {
+                        voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                        recordIds.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+                    }
+                    proxy.createVoucherOrders(voucherOrders);
 
-                    // 3.ACK确认，XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 3.每个stream一次ACK确认整批消息，XACK stream g1 id1 id2 ...
+                    recordIds.forEach((stream, ids) -> stringRedisTemplate.opsForStream()
+                            .acknowledge(stream, SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0])));
                 } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    // 抛出异常，处理pending-list中的消息
+                    log.error("批量处理订单异常", e);
+                    // 整批事务已回滚，消息都留在pending-list中，逐条处理以隔离出有问题的订单
                     handlePendingList();
                 }
             }
         }
 
+        /**
+         * 逐个stream把本消费者的pending-list扫描一遍，处理失败的消息跳过，不再阻塞新订单；
+         * 这些消息留在pending-list中，由PendingOrderRecovery按投递次数重试或转入死信队列
+         */
         private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取redis的pending-list中订单信息  XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
+            for (StreamOffset<String> pendingOffset : pendingOffsets) {
+                String stream = pendingOffset.getKey();
+                String lastId = "0";
+                while (true) {
+                    // 1.获取redis的pending-list中lastId之后的订单信息  XREADGROUP GROUP g1 host-i COUNT N STREAMS stream lastId
+                    List<MapRecord<String, Object, Object>> list;
+                    try {
+                        list = stringRedisTemplate.opsForStream().read(
+                                consumer,
+                                StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE),
+                                StreamOffset.create(stream, ReadOffset.from(lastId))
+                        );
+                    } catch (Exception e) {
+                        log.error("读取pending-list异常", e);
+                        break;
+                    }
 
                     // 2.判断消息是否获取成功
                     if (list == null || list.isEmpty()) {
-                        // 2.1如果获取失败，说明pending-list没有异常消息，结束循环
+                        // 2.1如果获取失败，说明已经扫描到pending-list末尾，结束循环
                         break;
                     }
 
-                    // 2.2如果获取成功，可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 走处理订单的流程
-                    handleVoucherOrder(voucherOrder);
+                    // 2.2逐条下单
+                    for (MapRecord<String, Object, Object> record : list) {
+                        lastId = record.getId().getValue();
+                        try {
+                            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                            handleVoucherOrder(voucherOrder);
+                            // 3.ACK确认，XACK stream g1 id
+                            stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, record.getId());
+                        } catch (Exception e) {
+                            log.error("处理订单异常, id={}", record.getId(), e);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-                    // 3.ACK确认，XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+    /**
+     * 定时检查所有分区的pending-list：
+     * 1.空闲时间超过阈值的消息(比如所属节点已经宕机)通过XCLAIM转给本节点处理
+     * 2.因数据错误失败的次数达到上限的消息转入死信队列并ACK，避免有问题的消息被无限重试；
+     *   数据库或Redis不可用导致的失败不计入次数，故障期间消息留在pending-list中，不会被误转入死信队列
+     * 3.统计pending数量和消费延迟
+     * SDR 2.6没有提供XAUTOCLAIM，这里用XPENDING+XCLAIM实现
+     */
+    private class PendingOrderRecovery implements Runnable {
+        private final String consumerName = CONSUMER_PREFIX + "-recovery";
+
+        @Override
+        public void run() {
+            long pendingSize = 0;
+            long lagMillis = 0;
+            for (int p = 0; p < SECKILL_ORDER_PARTITIONS; p++) {
+                String stream = streamKey(p);
+                try {
+                    recover(stream);
+                    pendingSize += stringRedisTemplate.opsForStream().pending(stream, SECKILL_ORDER_GROUP).getTotalPendingMessages();
+                    lagMillis = Math.max(lagMillis, lagMillis(stream));
                 } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    // 抛异常，再次循环处理pending-list
+                    log.error("恢复pending-list异常, stream={}", stream, e);
                 }
             }
+            pendingGauge.set(pendingSize);
+            lagGauge.set(lagMillis);
         }
-    }
 
-    // 处理订单
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        // 获取用户只能从订单中获取，不能再从ThreadLocal中获取，因为线程不同
-        Long userId = voucherOrder.getUserId();
-        // 创建锁对象；加锁是为了兜底；在前面判断库存和校验一人一单都在redis中完成了。
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
+        private void recover(String stream) {
+            // 按id分页遍历整个pending-list，每页从上一页最后一个id的下一个id开始
+            Range<String> range = Range.unbounded();
+            while (true) {
+                // 1.查询pending-list  XPENDING stream g1 start + N
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                        .pending(stream, SECKILL_ORDER_GROUP, range, SECKILL_ORDER_BATCH_SIZE);
+                if (pendingMessages.isEmpty()) {
+                    return;
+                }
+                recoverPage(stream, pendingMessages);
+                if (pendingMessages.size() < SECKILL_ORDER_BATCH_SIZE) {
+                    return;
+                }
+                String lastId = pendingMessages.get(pendingMessages.size() - 1).getIdAsString();
+                range = Range.rightUnbounded(Range.Bound.inclusive(nextRecordId(lastId)));
+            }
+        }
 
-        // 尝试获取锁,失败了立即返回
-        boolean isLocked = lock.tryLock();
+        private void recoverPage(String stream, PendingMessages pendingMessages) {
+            Map<String, Long> deliveryCounts = new HashMap<>();
+            List<RecordId> idleIds = new ArrayList<>();
+            for (PendingMessage message : pendingMessages) {
+                if (message.getElapsedTimeSinceLastDelivery().getSeconds() >= SECKILL_PENDING_IDLE) {
+                    idleIds.add(message.getId());
+                    deliveryCounts.put(message.getIdAsString(), message.getTotalDeliveryCount());
+                }
+            }
+            if (idleIds.isEmpty()) {
+                return;
+            }
 
-        if (!isLocked) {
-            log.error("不能重复下单");
-            return;
+            // 2.转给本节点  XCLAIM stream g1 host-recovery minIdle id1 id2 ...，其他节点已经认领的不会被重复认领
+            List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                    ((StringRedisConnection) connection).xClaim(stream, SECKILL_ORDER_GROUP, consumerName,
+                            Duration.ofSeconds(SECKILL_PENDING_IDLE), idleIds.toArray(new RecordId[0])));
+            if (records == null) {
+                return;
+            }
+
+            // 3.查询每条消息因数据错误失败的次数，数据库或Redis不可用导致的失败不计入
+            List<Object> recordIds = records.stream().map(record -> (Object) record.getId().getValue()).collect(Collectors.toList());
+            List<Object> failureCounts = stringRedisTemplate.opsForHash().multiGet(SECKILL_ORDER_FAILURE_KEY, recordIds);
+
+            for (int i = 0; i < records.size(); i++) {
+                StringRecord record = records.get(i);
+                String recordId = record.getId().getValue();
+                long deliveries = deliveryCounts.getOrDefault(recordId, 0L);
+                long failures = failureCounts.get(i) == null ? 0 : Long.parseLong((String) failureCounts.get(i));
+                try {
+                    if (failures >= SECKILL_ORDER_MAX_DELIVERIES) {
+                        // 4.数据错误的重试次数用完，转入死信队列
+                        Map<String, String> deadLetter = new HashMap<>(record.getValue());
+                        deadLetter.put("stream", stream);
+                        deadLetter.put("originId", recordId);
+                        deadLetter.put("deliveries", String.valueOf(deliveries));
+                        deadLetter.put("failures", String.valueOf(failures));
+                        stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(deadLetter).withStreamKey(SECKILL_ORDER_DLQ));
+                        deadLetterCounter.increment();
+                        orderStatusRecorder.failed(Long.valueOf(record.getValue().get("id")),
+                                Long.valueOf(record.getValue().get("userId")), "订单处理失败");
+                        log.error("订单处理多次失败，转入死信队列, stream={}, id={}", stream, record.getId());
+                    } else {
+                        // 5.重新处理
+                        claimedCounter.increment();
+                        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                        handleVoucherOrder(voucherOrder);
+                    }
+                    stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, record.getId());
+                    if (failures > 0) {
+                        stringRedisTemplate.opsForHash().delete(SECKILL_ORDER_FAILURE_KEY, recordId);
+                    }
+                } catch (Exception e) {
+                    if (isInfrastructureFailure(e)) {
+                        // 5.1数据库或Redis不可用，消息留在pending-list中等恢复后重试，不消耗重试次数
+                        log.warn("处理认领的订单失败，基础设施不可用，稍后重试, id={}", record.getId(), e);
+                        continue;
+                    }
+                    // 5.2订单数据本身有问题，记录一次失败，次数用完后转入死信队列
+                    log.error("处理认领的订单异常, id={}", record.getId(), e);
+                    recordFailure(recordId);
+                }
+            }
         }
 
-        try {
-            // 现在是子线程，没办法从ThreadLocal中获取东西
-            // 现在想触发事务，如何做？主线程初始化代理对象
-            // 子线程获取代理对象
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
+        private void recordFailure(String recordId) {
+            try {
+                stringRedisTemplate.opsForHash().increment(SECKILL_ORDER_FAILURE_KEY, recordId, 1);
+                stringRedisTemplate.expire(SECKILL_ORDER_FAILURE_KEY, SECKILL_ORDER_FAILURE_TTL, TimeUnit.HOURS);
+            } catch (Exception e) {
+                log.warn("记录订单失败次数异常, id={}", recordId, e);
+            }
+        }
+
+        /**
+         * 判断是否是基础设施故障：数据库、Redis连接失败或超时、事务无法开启、空指针等与订单数据无关的异常
+         */
+        private boolean isInfrastructureFailure(Throwable e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof TransientDataAccessException
+                        || t instanceof RecoverableDataAccessException
+                        || t instanceof DataAccessResourceFailureException
+                        || t instanceof TransactionException
+                        || t instanceof SQLTransientException
+                        || t instanceof SQLRecoverableException
+                        || t instanceof NullPointerException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 消费延迟：stream中最新消息与消费者组最后投递的消息之间的时间差，消息id的前半部分是毫秒时间戳
+         */
+        private long lagMillis(String stream) {
+            String lastGeneratedId = stringRedisTemplate.opsForStream().info(stream).lastGeneratedId();
+            return stringRedisTemplate.opsForStream().groups(stream).stream()
+                    .filter(group -> SECKILL_ORDER_GROUP.equals(group.groupName()))
+                    .findFirst()
+                    .map(group -> Math.max(0, idMillis(lastGeneratedId) - idMillis(group.lastDeliveredId())))
+                    .orElse(0L);
+        }
+
+        private long idMillis(String recordId) {
+            return Long.parseLong(recordId.substring(0, recordId.indexOf('-')));
         }
     }
 
+    // 处理订单
+    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+        // 一人一单由lua脚本和数据库唯一索引保证，不再需要加锁
+        // 现在是子线程，没办法从ThreadLocal中获取东西，通过代理对象触发事务
+        proxy.createVoucherOrder(voucherOrder);
+    }
+
 
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0.本节点已知售罄，直接返回，不访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+
         // 1.执行lua脚本
         // 获取用户信息
         Long userId = UserHolder.getUser().getId();
         // 订单id
         long orderId = redisIdWorker.nextId("order");
 
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        int res;
+        if (seckillStockRouter.isSharded()) {
+            // 1.1分片库存：各分片不在同一个slot，先校验秒杀时间，扣减成功后再由Java发送消息
+            // 这几步不是原子的：校验通过后秒杀恰好结束或下架，这个请求仍会下单成功；发送失败时撤销扣减
+            List<Object> meta = stringRedisTemplate.opsForHash()
+                    .multiGet(SECKILL_VOUCHER_KEY + voucherId, Arrays.asList("begin", "end", "status"));
+            long deadline = seckillStockRouter.deadlineOf(meta.get(1));
+            res = checkSeckillWindow(meta);
+            if (res == 0) {
+                res = seckillStockRouter.tryAcquire(voucherId, userId, deadline);
+            }
+            if (res == SeckillStockRouter.SUCCESS) {
+                try {
+                    sendOrder(voucherId, userId, orderId, deadline);
+                } catch (Exception e) {
+                    // 消息没有发出去，撤销扣减和占位，否则库存和下单资格都会丢失
+                    log.error("发送订单消息失败，撤销扣减, voucherId={}, userId={}", voucherId, userId, e);
+                    seckillStockRouter.release(voucherId, userId);
+                    return Result.fail("系统繁忙，请稍后重试");
+                }
+            }
+        } else {
+            // 1.2单key库存：脚本原子完成校验、扣减和发送消息，脚本访问多个slot的key，只支持单机或哨兵模式
+            Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId), streamKeyOfVoucher(voucherId),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL)), String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(TimeUnit.HOURS.toMillis(SECKILL_VOUCHER_RETENTION))
+            );
+            res = result.intValue();
+        }
 
         // 2.判断结果是否为0？
-        int res = result.intValue();
         if (res != 0) {
-            // 2.1不为0，代表没有购买资格
-            return Result.fail(res == 1 ? "库存不足" : "不能重复下单");
+            // 2.1库存不足，标记售罄并通知其他节点
+            if (res == 1) {
+                soldOutRegistry.markSoldOut(voucherId);
+            }
+            // 2.2不为0，代表没有购买资格
+            return Result.fail(res > 0 && res < SECKILL_FAIL_MESSAGES.length ? SECKILL_FAIL_MESSAGES[res] : "秒杀失败，请稍后重试");
         }
 
-        // 3.获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-        // 4.返回订单id
+        // 3.返回订单id
         return Result.ok(orderId);
     }
 
-    @Transactional
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 1.获取用户id
-        Long userId = voucherOrder.getUserId();
+    public long reenqueueOrder(Long voucherId, Long userId) {
+        // 沿用秒杀时生成的订单id，客户端查询的还是这个id；重复的消息由订单主键去重
+        Object original = stringRedisTemplate.opsForHash().get(SECKILL_ORDER_ID_KEY + voucherId, userId.toString());
+        long orderId = original != null ? Long.parseLong(original.toString()) : redisIdWorker.nextId("order");
+        sendOrder(voucherId, userId, orderId, seckillStockRouter.deadlineOf(voucherId));
+        return orderId;
+    }
 
-        // 2.查询tb_voucher_order表中是否只有一条记录？
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
+    @Override
+    public Set<Long> inFlightUsers(Long voucherId) {
+        Set<Long> users = new HashSet<>();
+        String stream = streamKeyOfVoucher(voucherId);
+        // 1.按id分页遍历pending-list，逐条读取消息内容
+        Range<String> range = Range.unbounded();
+        while (true) {
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(stream, SECKILL_ORDER_GROUP, range, SECKILL_ORDER_BATCH_SIZE);
+            for (PendingMessage message : pendingMessages) {
+                String id = message.getIdAsString();
+                collectUsers(stringRedisTemplate.opsForStream().range(stream, Range.closed(id, id)), voucherId, users);
+            }
+            if (pendingMessages.size() < SECKILL_ORDER_BATCH_SIZE) {
+                break;
+            }
+            range = Range.rightUnbounded(Range.Bound.inclusive(
+                    nextRecordId(pendingMessages.get(pendingMessages.size() - 1).getIdAsString())));
+        }
+        // 2.分页遍历死信队列
+        range = Range.unbounded();
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(SECKILL_ORDER_DLQ, range, RedisZSetCommands.Limit.limit().count(SECKILL_ORDER_BATCH_SIZE));
+            if (records == null || records.isEmpty()) {
+                break;
+            }
+            collectUsers(records, voucherId, users);
+            if (records.size() < SECKILL_ORDER_BATCH_SIZE) {
+                break;
+            }
+            range = Range.rightUnbounded(Range.Bound.inclusive(
+                    nextRecordId(records.get(records.size() - 1).getId().getValue())));
+        }
+        return users;
+    }
 
-        // 3.判断是否存在记录？
-        if (count > 0) {
-            // 用户已经购买过了
-            log.error("用户已经购买过了");
+    private static void collectUsers(List<MapRecord<String, Object, Object>> records, Long voucherId, Set<Long> users) {
+        if (records == null) {
             return;
         }
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            if (voucherId.toString().equals(value.get("voucherId")) && value.get("userId") != null) {
+                users.add(Long.valueOf(value.get("userId").toString()));
+            }
+        }
+    }
+
+    /**
+     * 消息id是 毫秒时间戳-序号，序号加一就是紧接着的下一个id，用于按id分页
+     */
+    private static String nextRecordId(String recordId) {
+        int index = recordId.indexOf('-');
+        return recordId.substring(0, index) + "-" + (Long.parseLong(recordId.substring(index + 1)) + 1);
+    }
+
+    /**
+     * 记录订单状态和订单id，并发送到订单消息队列
+     */
+    private void sendOrder(Long voucherId, Long userId, long orderId, long deadline) {
+        orderStatusRecorder.pending(orderId, userId);
+        String orderIdKey = SECKILL_ORDER_ID_KEY + voucherId;
+        stringRedisTemplate.opsForHash().put(orderIdKey, userId.toString(), String.valueOf(orderId));
+        if (deadline > 0) {
+            stringRedisTemplate.expireAt(orderIdKey, new Date(deadline));
+        }
+        Map<String, String> message = new HashMap<>();
+        message.put("userId", userId.toString());
+        message.put("voucherId", voucherId.toString());
+        message.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(message).withStreamKey(streamKeyOfVoucher(voucherId)));
+    }
 
+    /**
+     * 按元数据(begin、end、status)校验秒杀时间和状态，返回值与秒杀脚本一致，分片库存模式下使用
+     */
+    private int checkSeckillWindow(List<Object> meta) {
+        long now = System.currentTimeMillis();
+        if (meta.get(2) != null && !"1".equals(meta.get(2))) {
+            return 5;
+        }
+        if (meta.get(0) != null && now < Long.parseLong((String) meta.get(0))) {
+            return 3;
+        }
+        if (meta.get(1) != null && now > Long.parseLong((String) meta.get(1))) {
+            return 4;
+        }
+        return 0;
+    }
+
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        Map<Object, Object> status = orderStatusRecorder.get(orderId);
+        // 状态不存在、已过期或者不是当前用户的订单
+        if (status.isEmpty() || !UserHolder.getUser().getId().toString().equals(status.get("userId"))) {
+            return Result.fail("订单不存在");
+        }
+        status.remove("userId");
+        return Result.ok(status);
+    }
+
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 按优惠券分组，每个优惠券一条INSERT IGNORE、一次扣减库存
+        Map<Long, List<VoucherOrder>> ordersByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        ordersByVoucher.forEach((voucherId, orders) -> {
+            // 1.插入订单，订单id(主键)相同的重复消息和同一用户的重复订单(唯一索引)被忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+
+            // 2.只按实际插入的数量扣减库存 stock = stock - k
+            if (inserted > 0) {
+                boolean success = seckillVoucherService.update()
+                        .setSql("stock = stock - " + inserted)
+                        .eq("voucher_id", voucherId).ge("stock", inserted)
+                        .update();
+                // 库存在redis中已经预扣，这里不足说明数据不一致，回滚整批，交给逐条处理
+                if (!success) {
+                    throw new IllegalStateException("代金券库存不足, voucherId=" + voucherId + ", k=" + inserted);
+                }
+            }
+
+            // 3.全部插入成功时不用再查询；否则订单id存在的是已创建(包括之前已经创建过的重复消息)，其余是同一用户的重复订单
+            List<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+            Set<Long> createdIds = inserted == orders.size()
+                    ? new HashSet<>(orderIds)
+                    : query().select("id").in("id", orderIds).list()
+                            .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+            for (VoucherOrder order : orders) {
+                if (!createdIds.contains(order.getId())) {
+                    log.error("用户已经购买过了, userId={}, voucherId={}", order.getUserId(), voucherId);
+                    orderStatusRecorder.failed(order.getId(), order.getUserId(), "用户已经购买过了");
+                }
+            }
+            // 事务提交后记录状态
+            orderStatusRecorder.created(orders.stream().filter(order -> createdIds.contains(order.getId())).collect(Collectors.toList()));
+        });
+    }
+
+    @Transactional
+    @Override
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        // 1.插入订单，订单id(主键)相同的重复消息和同一用户的重复订单(唯一索引)被忽略
+        int inserted = getBaseMapper().insertIgnoreBatch(Collections.singletonList(voucherOrder));
+
+        // 2.没有插入，判断是重复消息还是重复下单
+        if (inserted == 0) {
+            if (getById(voucherOrder.getId()) != null) {
+                orderStatusRecorder.created(Collections.singletonList(voucherOrder));
+            } else {
+                log.error("用户已经购买过了");
+                orderStatusRecorder.failed(voucherOrder.getId(), voucherOrder.getUserId(), "用户已经购买过了");
+            }
+            return;
+        }
 
-        // 4.减扣库存
+        // 3.减扣库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
                 .update();
 
-        // 5.库存不足
+        // 4.库存不足，回滚已经插入的订单
         if (!success) {
             log.error("代金券已经售罄...");
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            orderStatusRecorder.failed(voucherOrder.getId(), voucherOrder.getUserId(), "代金券已经售罄");
             return;
         }
 
-        // 6.创建订单
-        save(voucherOrder);
+        // 5.事务提交后记录状态
+        orderStatusRecorder.created(Collections.singletonList(voucherOrder));
     }
 }
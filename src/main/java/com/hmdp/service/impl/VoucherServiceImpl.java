@@ -7,14 +7,27 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillStockRouter;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_RETENTION;
 
 /**
  * <p>
@@ -33,6 +46,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -53,7 +75,114 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀信息到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后再写入Redis，回滚时Redis中不会多出一个秒杀券
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // 1.保存秒杀信息到Redis中，开启分片时把库存平均分到各个分片
+                if (seckillStockRouter.isSharded()) {
+                    seckillStockRouter.addStock(voucher.getId(), voucher.getStock());
+                } else {
+                    stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+                }
+                // 2.保存秒杀券元数据，秒杀脚本据此校验秒杀时间
+                saveSeckillMeta(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime(),
+                        voucher.getStatus() == null ? 1 : voucher.getStatus());
+                // 3.按库存创建本节点的令牌桶，第一个秒杀请求不需要再查询Redis
+                seckillAdmission.seed(voucher.getId(), voucher.getStock(), toEpochMilli(voucher.getEndTime()));
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result updateSeckillVoucher(Voucher voucher) {
+        Long voucherId = voucher.getId();
+        if (voucherId == null) {
+            return Result.fail("优惠券id不能为空");
+        }
+        // 1.更新优惠券和秒杀时间，库存通过补充库存接口修改；更新时间保证至少有一个字段需要更新
+        voucher.setUpdateTime(LocalDateTime.now());
+        if (!updateById(voucher)) {
+            return Result.fail("秒杀券不存在");
+        }
+        if (voucher.getBeginTime() != null || voucher.getEndTime() != null) {
+            seckillVoucherService.update()
+                    .set(voucher.getBeginTime() != null, "begin_time", voucher.getBeginTime())
+                    .set(voucher.getEndTime() != null, "end_time", voucher.getEndTime())
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        // 2.事务提交后按数据库中的最新数据重写元数据
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+                Voucher latest = getById(voucherId);
+                if (seckillVoucher == null || latest == null) {
+                    // 已经不是秒杀券，删除元数据
+                    stringRedisTemplate.delete(SECKILL_VOUCHER_KEY + voucherId);
+                    return;
+                }
+                saveSeckillMeta(voucherId, seckillVoucher.getBeginTime(), seckillVoucher.getEndTime(),
+                        latest.getStatus() == null ? 1 : latest.getStatus());
+            }
+        });
+        return Result.ok();
+    }
+
+    /**
+     * 覆盖写入秒杀券元数据，元数据和库存在秒杀结束SECKILL_VOUCHER_RETENTION小时后过期
+     */
+    private void saveSeckillMeta(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int status) {
+        String key = SECKILL_VOUCHER_KEY + voucherId;
+        Map<String, String> meta = new HashMap<>();
+        meta.put("begin", String.valueOf(toEpochMilli(beginTime)));
+        meta.put("end", String.valueOf(toEpochMilli(endTime)));
+        meta.put("status", String.valueOf(status));
+        stringRedisTemplate.opsForHash().putAll(key, meta);
+        long expireAt = toEpochMilli(endTime) + TimeUnit.HOURS.toMillis(SECKILL_VOUCHER_RETENTION);
+        stringRedisTemplate.expireAt(key, new Date(expireAt));
+        seckillStockRouter.expireAt(voucherId, expireAt);
+    }
+
+    private long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1.增加数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2.事务提交后再增加Redis中的库存并清除售罄标记，否则数据库回滚时Redis会多出库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // 2.1增加Redis中的库存
+                if (seckillStockRouter.isSharded()) {
+                    seckillStockRouter.addStock(voucherId, count);
+                } else {
+                    stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+                }
+                // 2.2之前库存为0的分片这时才创建库存key，重新设置过期时间
+                long deadline = seckillStockRouter.deadlineOf(voucherId);
+                if (deadline > 0) {
+                    seckillStockRouter.expireAt(voucherId, deadline);
+                }
+                // 2.3清除所有节点的售罄标记
+                soldOutRegistry.clear(voucherId);
+            }
+        });
+        return Result.ok();
     }
 }
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static com.hmdp.utils.SystemConstants.ADMIN_USER_IDS;
+
+/**
+ * @Description: 管理员校验：运维接口(缓存预热、秒杀对账等)只允许管理员调用
+ * @author: coderMartin
+ * @date: 2022-12-30
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.未登录，拦截
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        // 2.不是管理员，拦截
+        if (!ADMIN_USER_IDS.contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        // 3.管理员，放行
+        return true;
+    }
+}
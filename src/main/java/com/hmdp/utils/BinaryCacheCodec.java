@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @Description: 紧凑的二进制编解码器，格式为：
+ * [1字节 格式标识][8字节 逻辑过期时间戳][4字节 上次重建耗时][对象的JSON]
+ * 过期时间在固定位置，读取时不需要解析对象；对象只解析一次，直接转成目标类型
+ * 兼容没有重建耗时的旧格式：[0x01][8字节 逻辑过期时间戳][对象的JSON]
+ * 不是该格式的数据(例如旧的RedisData JSON)交给JsonCacheCodec处理
+ * @author: coderMartin
+ * @date: 2022-12-14
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    /**
+     * 格式标识，JSON总是以'{'开头，不会与之冲突
+     */
+    private static final byte MAGIC_V1 = 0x01;
+    private static final byte MAGIC = 0x02;
+    private static final int HEADER_LENGTH_V1 = 1 + Long.BYTES;
+    private static final int HEADER_LENGTH = 1 + Long.BYTES + Integer.BYTES;
+
+    private final CacheCodec legacyCodec = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value, long expireMillis, long rebuildMillis) {
+        byte[] payload = JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .put(MAGIC)
+                .putLong(expireMillis)
+                .putInt((int) Math.min(Integer.MAX_VALUE, Math.max(0, rebuildMillis)))
+                .put(payload)
+                .array();
+    }
+
+    @Override
+    public long readExpireMillis(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            return legacyCodec.readExpireMillis(bytes);
+        }
+        return ByteBuffer.wrap(bytes, 1, Long.BYTES).getLong();
+    }
+
+    @Override
+    public long readRebuildMillis(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            return legacyCodec.readRebuildMillis(bytes);
+        }
+        return bytes[0] == MAGIC ? ByteBuffer.wrap(bytes, 1 + Long.BYTES, Integer.BYTES).getInt() : 0;
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (!isBinary(bytes)) {
+            return legacyCodec.decode(bytes, type);
+        }
+        int headerLength = bytes[0] == MAGIC ? HEADER_LENGTH : HEADER_LENGTH_V1;
+        String json = new String(bytes, headerLength, bytes.length - headerLength, StandardCharsets.UTF_8);
+        return JSONUtil.toBean(json, type);
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return (bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC)
+                || (bytes.length >= HEADER_LENGTH_V1 && bytes[0] == MAGIC_V1);
+    }
+}
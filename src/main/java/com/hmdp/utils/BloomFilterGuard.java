@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 防止缓存穿透的布隆过滤器，按缓存key前缀保存店铺、笔记、用户的id
+ * 查询Redis之前先判断id是否可能存在，不存在的id直接返回，不再向Redis写入空值
+ * 启动时和之后每隔一段时间在后台从MySQL重建，新增的id实时加入并广播给其他节点
+ * @author: coderMartin
+ * @date: 2022-12-12
+ */
+@Slf4j
+@Component
+public class BloomFilterGuard {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 缓存key前缀 -> 数据源，数据源由两部分组成：总数 和 按id分页查询 (lastId -> 下一批id)
+     */
+    private final Map<String, Supplier<Integer>> counters = new LinkedHashMap<>();
+    private final Map<String, Function<Long, List<Object>>> loaders = new LinkedHashMap<>();
+
+    /**
+     * 已经构建好的过滤器；还没有构建完成的前缀不做拦截
+     */
+    private final Map<String, IdBloomFilter> filters = new ConcurrentHashMap<>();
+    /**
+     * 正在重建的过滤器，重建期间新增的id也要写进去
+     */
+    private final Map<String, IdBloomFilter> building = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rebuildExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("bloom-rebuild-", true));
+
+    @PostConstruct
+    private void init() {
+        counters.put(CACHE_SHOP_KEY, () -> shopMapper.selectCount(null));
+        loaders.put(CACHE_SHOP_KEY, lastId -> shopMapper.selectObjs(idPage(lastId)));
+        counters.put(CACHE_BLOG_KEY, () -> blogMapper.selectCount(null));
+        loaders.put(CACHE_BLOG_KEY, lastId -> blogMapper.selectObjs(idPage(lastId)));
+        counters.put(CACHE_USER_KEY, () -> userMapper.selectCount(null));
+        loaders.put(CACHE_USER_KEY, lastId -> userMapper.selectObjs(idPage(lastId)));
+
+        // 注册监控指标：误判率、内存占用
+        for (String prefix : loaders.keySet()) {
+            Gauge.builder("cache.bloom.fpp", filters, f -> f.containsKey(prefix) ? f.get(prefix).expectedFpp() : 0)
+                    .tag("prefix", prefix)
+                    .description("布隆过滤器当前估算的误判率")
+                    .register(meterRegistry);
+            Gauge.builder("cache.bloom.memory", filters, f -> f.containsKey(prefix) ? f.get(prefix).memoryBytes() : 0)
+                    .tag("prefix", prefix)
+                    .baseUnit("bytes")
+                    .description("布隆过滤器位数组占用的内存")
+                    .register(meterRegistry);
+        }
+
+        // 订阅其他节点新增的id，消息格式为 前缀|id
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf('|');
+            addLocal(body.substring(0, index), body.substring(index + 1));
+        }, new ChannelTopic(BLOOM_ADD_CHANNEL));
+
+        // 启动时在后台构建，之后定期重建
+        rebuildExecutor.scheduleWithFixedDelay(this::rebuildAll, 0, BLOOM_REBUILD_INTERVAL, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 判断id是否可能存在；该前缀没有过滤器或者还没构建完成时，一律返回true
+     */
+    public boolean mightContain(String prefixKey, Object id) {
+        IdBloomFilter filter = filters.get(prefixKey);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 该前缀的过滤器是否已经可用
+     */
+    public boolean isActive(String prefixKey) {
+        return filters.containsKey(prefixKey);
+    }
+
+    /**
+     * 新增数据后调用，把id加入本节点的过滤器，并广播给其他节点
+     */
+    public void add(String prefixKey, Object id) {
+        if (!loaders.containsKey(prefixKey)) {
+            return;
+        }
+        addLocal(prefixKey, id);
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, prefixKey + "|" + id);
+    }
+
+    private void addLocal(String prefixKey, Object id) {
+        IdBloomFilter filter = filters.get(prefixKey);
+        if (filter != null) {
+            filter.put(id);
+        }
+        IdBloomFilter rebuilding = building.get(prefixKey);
+        if (rebuilding != null) {
+            rebuilding.put(id);
+        }
+    }
+
+    /**
+     * 从数据库重建所有过滤器
+     */
+    public void rebuildAll() {
+        for (String prefix : loaders.keySet()) {
+            try {
+                rebuild(prefix);
+            } catch (Exception e) {
+                log.error("重建布隆过滤器失败，prefix={}", prefix, e);
+            }
+        }
+    }
+
+    private void rebuild(String prefixKey) {
+        long begin = System.currentTimeMillis();
+        // 1.按当前数据量的2倍预留容量，给之后新增的数据留出空间
+        Integer count = counters.get(prefixKey).get();
+        long expectedInsertions = Math.max(BLOOM_MIN_INSERTIONS, count == null ? 0 : count * 2L);
+        IdBloomFilter filter = new IdBloomFilter(expectedInsertions, BLOOM_FPP);
+        building.put(prefixKey, filter);
+        try {
+            // 2.按id分页，分批加载所有id
+            Function<Long, List<Object>> loader = loaders.get(prefixKey);
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Object> ids = loader.apply(lastId);
+                for (Object id : ids) {
+                    filter.put(id);
+                    lastId = Long.parseLong(id.toString());
+                }
+                total += ids.size();
+                if (ids.size() < BLOOM_LOAD_BATCH_SIZE) {
+                    break;
+                }
+            }
+            // 3.替换旧的过滤器
+            filters.put(prefixKey, filter);
+            log.info("布隆过滤器重建完成，prefix={}, ids={}, 内存={}字节, 耗时={}ms",
+                    prefixKey, total, filter.memoryBytes(), System.currentTimeMillis() - begin);
+        } finally {
+            building.remove(prefixKey);
+        }
+    }
+
+    /**
+     * select id from table where id > lastId order by id limit batchSize
+     */
+    private static <T> QueryWrapper<T> idPage(long lastId) {
+        return new QueryWrapper<T>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + BLOOM_LOAD_BATCH_SIZE);
+    }
+}
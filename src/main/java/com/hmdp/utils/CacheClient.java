@@ -1,21 +1,35 @@
 package com.hmdp.utils;
 
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -31,7 +45,66 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
+    /**
+     * 逻辑过期缓存的编解码器，见CacheConfig
+     */
+    @Resource
+    private CacheCodec cacheCodec;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 全局共享的缓存重建线程池
+     */
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    // 提前加载lua文件
+    private static final DefaultRedisScript<Long> HASH_UPDATE_SCRIPT;
+    private static final DefaultRedisScript<Long> HASH_REPLACE_SCRIPT;
+
+    static {
+        HASH_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        HASH_UPDATE_SCRIPT.setLocation(new ClassPathResource("hash_update.lua"));
+        HASH_UPDATE_SCRIPT.setResultType(Long.class);
+
+        HASH_REPLACE_SCRIPT = new DefaultRedisScript<>();
+        HASH_REPLACE_SCRIPT.setLocation(new ClassPathResource("hash_replace.lua"));
+        HASH_REPLACE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 本地一级缓存(L1)，按容量LRU淘汰，超过TTL自动失效
+     */
+    private final LRUCache<String, Object> localCache =
+            CacheUtil.newLRUCache(CACHE_LOCAL_CAPACITY, TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+
+    /**
+     * 本节点正在进行的加载/重建任务，同一个key的并发请求共享同一个Future，只有第一个请求真正去加载
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅失效频道，其他节点删除缓存时，同步清除本节点的L1
+     */
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            localCache.remove(key);
+            hotKeyDetector.evict(key);
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
 
     /**
      * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
@@ -49,17 +122,51 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
-        //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        redisData.setData(value);
+        setWithLogicExpire(key, value, time, unit, 0);
+    }
 
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    /**
+     * 写入逻辑过期的缓存，同时记录本次重建的耗时，用于之后的提前刷新
+     */
+    public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit, long rebuildMillis) {
+        //设置逻辑过期，编码后写入redis
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+        byte[] bytes = cacheCodec.encode(value, expireMillis, rebuildMillis);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.stringCommands().set(toBytes(key), bytes));
+        // 本节点的热点副本已经旧了
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存，所有SET命令通过pipeline一次性发送，rebuildMillis为这批数据的加载耗时
+     * 每个key的过期时间加上随机抖动，避免同一批数据在同一时刻一起过期
+     */
+    public void setBatchWithLogicExpire(Map<String, ?> values, Long time, TimeUnit unit, long rebuildMillis) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long ttlMillis = unit.toMillis(time);
+        long jitterBound = (long) (ttlMillis * CACHE_EXPIRE_JITTER_RATIO);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                long jitter = jitterBound > 0 ? ThreadLocalRandom.current().nextLong(jitterBound + 1) : 0;
+                long expireMillis = now + ttlMillis + jitter;
+                connection.stringCommands().set(toBytes(key), cacheCodec.encode(value, expireMillis, rebuildMillis));
+            });
+            return null;
+        });
     }
 
 
     public <R, ID> R queryWithCachePenetration(String prefixKey, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断id不存在，直接返回，不用访问Redis和数据库
+        if (!bloomFilterGuard.mightContain(prefixKey, id)) {
+            cacheMetrics.request(prefixKey, CacheMetrics.FILTERED);
+            return null;
+        }
+
         String key = prefixKey + id;
         // 1.从Redis查询缓存
         String json = stringRedisTemplate.opsForValue().get(key);
@@ -67,6 +174,7 @@ public class CacheClient {
         // 2.判断缓存是否命中;isNotBlank只有真正有字符串时才为true
         if (StrUtil.isNotBlank(json)) {
             // 3.存在，直接返回
+            cacheMetrics.request(prefixKey, CacheMetrics.HIT);
             return JSONUtil.toBean(json, type);
         }
 
@@ -76,54 +184,78 @@ public class CacheClient {
         //null是没有地址
         //""是有地址但是里面的内容是空的
         if (json != null) {
+            cacheMetrics.request(prefixKey, CacheMetrics.NULL_HIT);
             return null;
         }
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallBack.apply(id);
+        // 4.不存在，根据id查询数据库；本节点同一个key的并发请求合并为一次查询
+        return singleFlight(prefixKey, key, () -> {
+            cacheMetrics.request(prefixKey, CacheMetrics.MISS);
+            R r = cacheMetrics.recordDbFallback(prefixKey, () -> dbFallBack.apply(id));
 
-        // 5.不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis,防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
+            // 5.不存在，返回错误
+            if (r == null) {
+                // 布隆过滤器还未构建完成时，才将空值写入redis,防止缓存穿透
+                if (!bloomFilterGuard.isActive(prefixKey)) {
+                    stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                }
+                return null;
+            }
 
-        // 6.存在，写入Redis,设置过期时间
-        this.set(key, r, time, unit);
+            // 6.存在，写入Redis,设置过期时间
+            this.set(key, r, time, unit);
 
-        // 7.返回
-        return r;
+            // 7.返回
+            return r;
+        });
     }
 
 
     public <R, ID> R queryWithLogicExpire(String prefixKey, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断id不存在，直接返回
+        if (!bloomFilterGuard.mightContain(prefixKey, id)) {
+            cacheMetrics.request(prefixKey, CacheMetrics.FILTERED);
+            return null;
+        }
+
         String key = prefixKey + id;
-        // 1.从Redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 1.从Redis查询商铺缓存；热点key直接读本地副本
+        hotKeyDetector.record(key);
+        byte[] bytes = hotKeyDetector.getReplica(key);
+        if (bytes == null) {
+            bytes = getBytes(key);
+        }
 
         // 2.判断缓存是否命中
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             // 3.未命中，直接返回
+            cacheMetrics.request(prefixKey, CacheMetrics.MISS);
             return null;
         }
 
         // 4.redis命中
-        // 4.1 把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-
-        // 5.判断是否逻辑过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        // 4.1 解码出对象和逻辑过期时间
+        R r = cacheCodec.decode(bytes, type);
+        long expireMillis = cacheCodec.readExpireMillis(bytes);
+
+        // 5.判断是否逻辑过期；快到期时按概率提前刷新，避免所有请求在过期的同一时刻一起重建
+        long now = System.currentTimeMillis();
+        if (expireMillis > now && !shouldRefreshEarly(expireMillis, cacheCodec.readRebuildMillis(bytes), now)) {
             // 5.1未过期，直接返回店铺信息
+            cacheMetrics.request(prefixKey, CacheMetrics.HIT);
+            hotKeyDetector.putReplicaIfHot(key, bytes);
             return r;
         }
+        cacheMetrics.request(prefixKey, expireMillis > now ? CacheMetrics.HIT : CacheMetrics.STALE);
 
 
-        // 5.2已过期，需要缓存重建
-        // 6.缓存重建
+        // 5.2已过期或需要提前刷新，需要缓存重建
+        // 6.缓存重建；本节点已经有线程在重建这个key时，不再去竞争分布式锁
+        String rebuildKey = "rebuild:" + key;
+        CompletableFuture<Object> rebuild = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(rebuildKey, rebuild) != null) {
+            return r;
+        }
         // 6.1尝试获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
         boolean isLocked = tryLock(lockKey);
@@ -131,18 +263,36 @@ public class CacheClient {
         if (isLocked) {
             // 6.3获取成功，开启独立线程
             //注意：获取锁成功应该再次检测redis缓存是否过期，做DoubleCheck。如果存在则无需重建缓存。
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            boolean submitted = cacheRebuildExecutor.submit(key, () -> {
                 try {
-                    // 重建缓存
-                    R r1 = dbFallBack.apply(id);
-                    this.setWithLogicExpire(key, r1, time, unit);
+                    // 重建缓存，记录重建耗时
+                    long begin = System.currentTimeMillis();
+                    R r1 = cacheMetrics.recordDbFallback(prefixKey, () -> dbFallBack.apply(id));
+                    this.setWithLogicExpire(key, r1, time, unit, System.currentTimeMillis() - begin);
+                    rebuild.complete(r1);
                 } catch (Exception e) {
+                    cacheMetrics.rebuildFailed(prefixKey);
+                    rebuild.completeExceptionally(e);
                     throw new RuntimeException(e);
                 } finally {
                     // 释放锁
                     unLock(lockKey);
+                    inFlight.remove(rebuildKey, rebuild);
                 }
             });
+            if (submitted) {
+                cacheMetrics.rebuildStarted(prefixKey);
+            } else {
+                // 重建任务被拒绝，释放锁，返回旧数据
+                unLock(lockKey);
+                rebuild.complete(r);
+                inFlight.remove(rebuildKey, rebuild);
+            }
+        } else {
+            // 其他节点正在重建
+            cacheMetrics.lockContention(prefixKey);
+            rebuild.complete(r);
+            inFlight.remove(rebuildKey, rebuild);
         }
 
 
@@ -152,6 +302,387 @@ public class CacheClient {
     }
 
 
+    /**
+     * 批量查询逻辑过期的缓存：一次MGET查询Redis，未命中和已过期的数据用一次IN查询从数据库加载，
+     * 再通过pipeline写回Redis
+     *
+     * @param ids             要查询的id，返回结果与其顺序一致，数据库中不存在的id会被跳过并缓存空值
+     * @param dbBatchFallBack 根据一批id查询数据库，例如 this::listByIds
+     * @param idGetter        从对象中取出id，用于把数据库结果和id对应起来
+     */
+    public <R, ID> List<R> queryBatchWithLogicExpire(String prefixKey, List<ID> ids, Class<R> type,
+                                                     Function<List<ID>, List<R>> dbBatchFallBack, Function<R, ID> idGetter,
+                                                     Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 0.布隆过滤器判断不存在的id直接跳过，不访问Redis和数据库
+        List<ID> candidates = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            if (bloomFilterGuard.mightContain(prefixKey, id)) {
+                candidates.add(id);
+            }
+        }
+        cacheMetrics.request(prefixKey, CacheMetrics.FILTERED, ids.size() - candidates.size());
+
+        // 1.热点key先读本地副本，其余的一次MGET查询
+        byte[][] values = new byte[candidates.size()][];
+        List<Integer> redisIndexes = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            String key = prefixKey + candidates.get(i);
+            hotKeyDetector.record(key);
+            values[i] = hotKeyDetector.getReplica(key);
+            if (values[i] == null) {
+                redisIndexes.add(i);
+            }
+        }
+        if (!redisIndexes.isEmpty()) {
+            byte[][] keys = new byte[redisIndexes.size()][];
+            for (int j = 0; j < redisIndexes.size(); j++) {
+                keys[j] = toBytes(prefixKey + candidates.get(redisIndexes.get(j)));
+            }
+            List<byte[]> valueList = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(keys));
+            for (int j = 0; valueList != null && j < redisIndexes.size(); j++) {
+                values[redisIndexes.get(j)] = valueList.get(j);
+            }
+        }
+
+        // 2.解析命中的数据，收集未命中和已逻辑过期的id；先读过期时间，过期的数据不用解码；空值说明数据库中不存在
+        Map<ID, R> resultMap = new HashMap<>(candidates.size());
+        List<ID> reloadIds = new ArrayList<>();
+        int nullHits = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < candidates.size(); i++) {
+            byte[] bytes = values[i];
+            if (bytes != null && bytes.length == 0) {
+                nullHits++;
+                continue;
+            }
+            if (bytes == null || cacheCodec.readExpireMillis(bytes) <= now) {
+                reloadIds.add(candidates.get(i));
+                continue;
+            }
+            resultMap.put(candidates.get(i), cacheCodec.decode(bytes, type));
+            hotKeyDetector.putReplicaIfHot(prefixKey + candidates.get(i), bytes);
+        }
+        cacheMetrics.request(prefixKey, CacheMetrics.HIT, resultMap.size());
+        cacheMetrics.request(prefixKey, CacheMetrics.NULL_HIT, nullHits);
+        cacheMetrics.request(prefixKey, CacheMetrics.MISS, reloadIds.size());
+
+        // 3.用一次IN查询加载未命中的数据，并通过pipeline写回Redis
+        if (!reloadIds.isEmpty()) {
+            long begin = System.currentTimeMillis();
+            List<R> dbList = cacheMetrics.recordDbFallback(prefixKey, () -> dbBatchFallBack.apply(reloadIds));
+            Map<String, R> writeBack = new HashMap<>(dbList.size());
+            for (R r : dbList) {
+                ID id = idGetter.apply(r);
+                resultMap.put(id, r);
+                writeBack.put(prefixKey + id, r);
+            }
+            setBatchWithLogicExpire(writeBack, time, unit, System.currentTimeMillis() - begin);
+
+            // 3.1数据库中也不存在的id写入短TTL的空值，防止缓存穿透
+            List<ID> absentIds = reloadIds.stream().filter(id -> !resultMap.containsKey(id)).collect(Collectors.toList());
+            if (!absentIds.isEmpty()) {
+                long nullTtlSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (ID id : absentIds) {
+                        connection.stringCommands().setEx(toBytes(prefixKey + id), nullTtlSeconds, new byte[0]);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        // 4.按输入的顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = resultMap.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在逻辑过期查询前面加一层本地缓存(L1)，热点数据直接从JVM内存返回，不访问Redis
+     * 注意：L1中的对象是共享实例，调用方不要修改它
+     */
+    public <R, ID> R queryWithLocalCache(String prefixKey, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        String key = prefixKey + id;
+        // 1.查询本地缓存
+        Object local = localCache.get(key);
+        if (local != null) {
+            // 2.命中，直接返回
+            cacheMetrics.request(prefixKey, CacheMetrics.LOCAL_HIT);
+            return type.cast(local);
+        }
+
+        // 3.未命中，走Redis逻辑过期查询；本节点同一个key的并发请求只查一次Redis
+        R r = singleFlight(prefixKey, prefixKey + "local:" + id, () -> queryWithLogicExpire(prefixKey, id, type, dbFallBack, time, unit));
+
+        // 4.写入本地缓存
+        if (r != null) {
+            localCache.put(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * 将对象的每个非空字段写入hash，字段值转成字符串，逻辑过期时间写入_expire字段
+     * 用脚本先DEL再HSET，旧hash中已经变成null的字段不会残留
+     */
+    public void setHashWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
+        Map<String, Object> fields = toFieldMap(value);
+        fields.put(CACHE_HASH_EXPIRE_FIELD, String.valueOf(System.currentTimeMillis() + unit.toMillis(time)));
+        List<String> args = new ArrayList<>(fields.size() * 2);
+        fields.forEach((field, fieldValue) -> {
+            args.add(field);
+            args.add(fieldValue.toString());
+        });
+        stringRedisTemplate.execute(HASH_REPLACE_SCRIPT, Collections.singletonList(key), args.toArray());
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 只更新hash中变化的字段；缓存不存在时不写入，等下次查询时完整重建
+     *
+     * @param value 只有非空字段会被写入
+     * @return 是否写入了缓存
+     */
+    public boolean updateHashFields(String key, Object value) {
+        Map<String, Object> fields = toFieldMap(value);
+        if (fields.isEmpty()) {
+            return false;
+        }
+        List<String> args = new ArrayList<>(fields.size() * 2);
+        fields.forEach((field, fieldValue) -> {
+            args.add(field);
+            args.add(fieldValue.toString());
+        });
+        Long result = stringRedisTemplate.execute(HASH_UPDATE_SCRIPT, Collections.singletonList(key), args.toArray());
+        // 本节点和其他节点的本地缓存都要清除，但不删除Redis中的hash
+        localCache.remove(key);
+        hotKeyDetector.evict(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 查询hash结构的逻辑过期缓存；未命中时从数据库加载完整对象写入hash，已过期时异步重建并返回旧数据
+     */
+    public <R, ID> R queryHashWithLogicExpire(String prefixKey, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断id不存在，直接返回
+        if (!bloomFilterGuard.mightContain(prefixKey, id)) {
+            cacheMetrics.request(prefixKey, CacheMetrics.FILTERED);
+            return null;
+        }
+
+        String key = prefixKey + id;
+        // 1.查询整个hash
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+
+        // 2.未命中，从数据库加载；本节点同一个key的并发请求合并为一次查询
+        if (entries.isEmpty()) {
+            return singleFlight(prefixKey, key, () -> {
+                cacheMetrics.request(prefixKey, CacheMetrics.MISS);
+                R r = cacheMetrics.recordDbFallback(prefixKey, () -> dbFallBack.apply(id));
+                if (r != null) {
+                    setHashWithLogicExpire(key, r, time, unit);
+                }
+                return r;
+            });
+        }
+
+        // 3.命中，转成对象
+        Object expire = entries.remove(CACHE_HASH_EXPIRE_FIELD);
+        R r = BeanUtil.toBean(entries, type);
+
+        // 4.未过期，直接返回
+        if (expire != null && Long.parseLong(expire.toString()) > System.currentTimeMillis()) {
+            cacheMetrics.request(prefixKey, CacheMetrics.HIT);
+            return r;
+        }
+
+        // 5.已过期，本节点只有一个线程去抢锁，抢到了异步重建，都返回旧数据
+        cacheMetrics.request(prefixKey, CacheMetrics.STALE);
+        rebuildHashAsync(prefixKey, id, key, dbFallBack, time, unit);
+        return r;
+    }
+
+    /**
+     * 异步重建hash缓存；和queryWithLogicExpire一样先在inFlight中登记，本节点同一个key只有一个线程去竞争分布式锁
+     */
+    private <R, ID> void rebuildHashAsync(String prefixKey, ID id, String key, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        String rebuildKey = "rebuild:" + key;
+        CompletableFuture<Object> rebuild = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(rebuildKey, rebuild) != null) {
+            return;
+        }
+        String lockKey = LOCK_SHOP_KEY + id;
+        if (!tryLock(lockKey)) {
+            // 其他节点正在重建
+            cacheMetrics.lockContention(prefixKey);
+            rebuild.complete(null);
+            inFlight.remove(rebuildKey, rebuild);
+            return;
+        }
+        boolean submitted = cacheRebuildExecutor.submit(key, () -> {
+            try {
+                R r1 = cacheMetrics.recordDbFallback(prefixKey, () -> dbFallBack.apply(id));
+                if (r1 != null) {
+                    setHashWithLogicExpire(key, r1, time, unit);
+                }
+                rebuild.complete(r1);
+            } catch (Exception e) {
+                cacheMetrics.rebuildFailed(prefixKey);
+                rebuild.completeExceptionally(e);
+                throw e;
+            } finally {
+                unLock(lockKey);
+                inFlight.remove(rebuildKey, rebuild);
+            }
+        });
+        if (submitted) {
+            cacheMetrics.rebuildStarted(prefixKey);
+        } else {
+            unLock(lockKey);
+            rebuild.complete(null);
+            inFlight.remove(rebuildKey, rebuild);
+        }
+    }
+
+    /**
+     * 用HMGET只查询hash中的部分字段，例如列表卡片只需要 name、avgPrice、score
+     * _expire字段和要查询的字段一起读取；已过期时触发异步重建，仍然返回旧的字段
+     *
+     * @return 字段 -> 值；缓存不存在时返回null，由调用方回退到完整查询
+     */
+    public <ID> Map<String, String> queryHashFields(String prefixKey, ID id, List<String> fields,
+                                                    Function<ID, ?> dbFallBack, Long time, TimeUnit unit) {
+        String key = prefixKey + id;
+        // 1.HMGET 要查询的字段 + _expire
+        List<Object> hashKeys = new ArrayList<>(fields.size() + 1);
+        hashKeys.addAll(fields);
+        hashKeys.add(CACHE_HASH_EXPIRE_FIELD);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, hashKeys);
+
+        // 2.没有_expire说明hash不存在，交给调用方
+        Object expire = values.get(fields.size());
+        if (expire == null) {
+            return null;
+        }
+        Map<String, String> result = new LinkedHashMap<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            result.put(fields.get(i), values.get(i) == null ? null : values.get(i).toString());
+        }
+
+        // 3.未过期直接返回，已过期异步重建并返回旧数据
+        if (Long.parseLong(expire.toString()) > System.currentTimeMillis()) {
+            cacheMetrics.request(prefixKey, CacheMetrics.HIT);
+        } else {
+            cacheMetrics.request(prefixKey, CacheMetrics.STALE);
+            rebuildHashAsync(prefixKey, id, key, dbFallBack, time, unit);
+        }
+        return result;
+    }
+
+    /**
+     * 删除缓存：删除Redis中的key，清除本地缓存，并广播给其他节点清除它们的L1
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.remove(key);
+        hotKeyDetector.evict(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+
+    /**
+     * 批量删除缓存：一次DEL删除Redis中的key，清除本地缓存，并通过pipeline广播给其他节点
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        for (String key : keys) {
+            localCache.remove(key);
+            hotKeyDetector.evict(key);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] channel = toBytes(CACHE_INVALIDATE_CHANNEL);
+            for (String key : keys) {
+                connection.publish(channel, toBytes(key));
+            }
+            return null;
+        });
+    }
+
+
+    /**
+     * XFetch提前刷新：now - rebuildMillis * beta * ln(rand) >= expireMillis 时刷新
+     * 越接近过期时间、重建越慢，提前刷新的概率越大，刷新请求会被分散到过期前的一段时间内
+     */
+    private static boolean shouldRefreshEarly(long expireMillis, long rebuildMillis, long now) {
+        if (CACHE_REFRESH_BETA <= 0 || rebuildMillis <= 0) {
+            return false;
+        }
+        // rand取值范围(0,1]，ln(rand) <= 0
+        double rand = 1 - ThreadLocalRandom.current().nextDouble();
+        return now - rebuildMillis * CACHE_REFRESH_BETA * Math.log(rand) >= expireMillis;
+    }
+
+    /**
+     * 单飞(single-flight)：同一个key同时只有一个线程执行loader，其他线程等待并共享它的结果
+     * 等待的线程记为coalesced，查询结果由执行loader的线程记录
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String prefixKey, String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已经有线程在加载，等待它的结果
+            cacheMetrics.request(prefixKey, CacheMetrics.COALESCED);
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 对象的非空字段转成 字段名 -> 字符串值
+     */
+    private static Map<String, Object> toFieldMap(Object value) {
+        return BeanUtil.beanToMap(value, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue == null ? null : fieldValue.toString()));
+    }
+
+    private byte[] getBytes(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(toBytes(key)));
+    }
+
+    private static byte[] toBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
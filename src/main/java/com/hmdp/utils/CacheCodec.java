@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+/**
+ * @Description: 逻辑过期缓存的编解码器，负责把 对象+逻辑过期时间 编码成写入Redis的字节
+ * @author: coderMartin
+ * @date: 2022-12-14
+ */
+public interface CacheCodec {
+    /**
+     * 编码
+     * @param value 缓存的对象
+     * @param expireMillis 逻辑过期时间，毫秒时间戳
+     * @param rebuildMillis 上一次重建该缓存的耗时，毫秒，用于提前刷新
+     * @return 写入Redis的字节
+     */
+    byte[] encode(Object value, long expireMillis, long rebuildMillis);
+
+    /**
+     * 只读取逻辑过期时间，尽量不解析缓存的对象
+     * @return 逻辑过期时间，毫秒时间戳
+     */
+    long readExpireMillis(byte[] bytes);
+
+    /**
+     * 读取上一次重建的耗时，没有记录时返回0
+     */
+    long readRebuildMillis(byte[] bytes);
+
+    /**
+     * 解码出缓存的对象
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @Description: CacheClient的监控指标，按缓存key前缀统计，通过Actuator的/actuator/metrics暴露
+ * cache.requests{prefix, result}：local_hit 本地缓存命中、hit 命中、null_hit 命中空值、miss 未命中、
+ *                                 stale 返回了过期数据、filtered 被布隆过滤器拦截、
+ *                                 coalesced 等待同一个key正在进行的加载并共享其结果
+ * cache.rebuilds{prefix, result}：started 重建任务提交成功、failed 重建失败
+ * cache.lock.contention{prefix}：没有抢到重建锁的次数
+ * cache.db.fallback{prefix}：查询数据库的耗时分布
+ * @author: coderMartin
+ * @date: 2022-12-18
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    public static final String STALE = "stale";
+    public static final String FILTERED = "filtered";
+    public static final String COALESCED = "coalesced";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 缓存已经注册过的指标，避免每次都重新构建
+     */
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次缓存查询的结果
+     */
+    public void request(String prefixKey, String result) {
+        request(prefixKey, result, 1);
+    }
+
+    public void request(String prefixKey, String result, int count) {
+        counter("cache.requests", prefixKey, result).increment(count);
+    }
+
+    public void rebuildStarted(String prefixKey) {
+        counter("cache.rebuilds", prefixKey, "started").increment();
+    }
+
+    public void rebuildFailed(String prefixKey) {
+        counter("cache.rebuilds", prefixKey, "failed").increment();
+    }
+
+    public void lockContention(String prefixKey) {
+        counters.computeIfAbsent("cache.lock.contention|" + prefixKey, k -> Counter.builder("cache.lock.contention")
+                .tag("prefix", prefixKey)
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * 执行数据库查询并记录耗时
+     */
+    public <T> T recordDbFallback(String prefixKey, Supplier<T> dbQuery) {
+        long begin = System.nanoTime();
+        try {
+            return dbQuery.get();
+        } finally {
+            timers.computeIfAbsent(prefixKey, k -> Timer.builder("cache.db.fallback")
+                    .tag("prefix", prefixKey)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+            ).record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Counter counter(String name, String prefixKey, String result) {
+        return counters.computeIfAbsent(name + "|" + prefixKey + "|" + result, k -> Counter.builder(name)
+                .tag("prefix", prefixKey)
+                .tag("result", result)
+                .register(meterRegistry));
+    }
+}
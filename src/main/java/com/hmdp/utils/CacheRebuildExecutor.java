@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 全局共享的缓存重建线程池
+ * 1.同一个key已经在排队或正在重建时，不会重复提交
+ * 2.队列有界，队列满了直接拒绝本次重建：调用方继续返回旧数据，下次读到过期数据时会再次尝试
+ * 3.通过Micrometer暴露队列长度、活跃线程数、重建耗时、拒绝和去重的次数
+ * 4.应用关闭时等待正在执行的重建完成
+ * @author: coderMartin
+ * @date: 2022-12-20
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            CACHE_REBUILD_THREADS, CACHE_REBUILD_THREADS,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(CACHE_REBUILD_QUEUE_CAPACITY),
+            new NamedThreadFactory("cache-rebuild-", false),
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    /**
+     * 已提交还没执行完的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private Timer latencyTimer;
+    private Counter rejectedCounter;
+    private Counter deduplicatedCounter;
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("cache.rebuild.queue.size", executor, e -> e.getQueue().size())
+                .description("等待执行的重建任务数")
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行的重建任务数")
+                .register(meterRegistry);
+        latencyTimer = Timer.builder("cache.rebuild.latency")
+                .description("从提交到重建完成的耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("cache.rebuild.rejected").register(meterRegistry);
+        deduplicatedCounter = Counter.builder("cache.rebuild.deduplicated").register(meterRegistry);
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key  缓存key，用于去重
+     * @param task 重建逻辑
+     * @return 是否提交成功；key已经在重建中或者队列已满时返回false，task不会被执行
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicatedCounter.increment();
+            return false;
+        }
+        long submitTime = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("缓存重建失败，key={}", key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                    latencyTimer.record(System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejectedCounter.increment();
+            log.warn("缓存重建队列已满，放弃本次重建，key={}", key);
+            return false;
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(CACHE_REBUILD_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            log.warn("缓存重建线程池未能在{}秒内结束，剩余任务将被丢弃", CACHE_REBUILD_SHUTDOWN_TIMEOUT);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static com.hmdp.utils.RedisConstants.CACHE_RESPONSE_TTL;
+
+/**
+ * @Description: 标记可以缓存响应的GET接口，命中时直接把序列化好的Result写回，不再调用Controller
+ * 只缓存成功的Result，需要接口返回值与请求参数以外的状态无关
+ * @author: coderMartin
+ * @date: 2022-12-27
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CacheResponse {
+
+    /**
+     * 数据对应的缓存key前缀，与pathVariable拼接后作为响应缓存的key，
+     * 这样CacheClient删除该key并广播时，响应缓存也会一起失效。为空时使用请求路径和参数作为key，只依赖过期时间
+     */
+    String key() default "";
+
+    /**
+     * 与key拼接的路径变量名
+     */
+    String pathVariable() default "id";
+
+    /**
+     * 过期时间，单位秒
+     */
+    long ttl() default CACHE_RESPONSE_TTL;
+
+    /**
+     * 为true时只缓存未登录用户的响应，适用于结果与当前用户有关的接口(比如是否点赞)
+     */
+    boolean anonymousOnly() default false;
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.dto.WarmUpProgress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_WARMUP_MAX_IN_FLIGHT;
+
+/**
+ * @Description: 逻辑过期缓存的预热：按id分页从MySQL读出数据，用pipeline批量写入Redis
+ * 同时在写入的批次数不超过CACHE_WARMUP_MAX_IN_FLIGHT，避免把Redis打满
+ * @author: coderMartin
+ * @date: 2022-12-16
+ */
+@Slf4j
+@Component
+public class CacheWarmer {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 负责分页读数据库的线程
+     */
+    private final ExecutorService loadExecutor =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("cache-warmup-load-", true));
+    /**
+     * 负责批量写Redis的线程
+     */
+    private final ExecutorService writeExecutor =
+            Executors.newFixedThreadPool(CACHE_WARMUP_MAX_IN_FLIGHT, new NamedThreadFactory("cache-warmup-write-", true));
+
+    /**
+     * 每个前缀最近一次预热的进度
+     */
+    private final Map<String, WarmUpProgress> progressMap = new ConcurrentHashMap<>();
+
+    /**
+     * 异步预热，同一个前缀正在预热时直接返回当前进度
+     *
+     * @param pageLoader 按id分页查询数据库：lastId -> id大于lastId的下一批数据，按id升序
+     * @param idGetter   从对象中取出id
+     */
+    public <R> WarmUpProgress warmUpAsync(String prefixKey, Function<Long, List<R>> pageLoader, Function<R, Long> idGetter,
+                                          Long time, TimeUnit unit) {
+        WarmUpProgress progress = new WarmUpProgress();
+        progress.setPrefixKey(prefixKey);
+        progress.setStartTime(LocalDateTime.now());
+        WarmUpProgress running = progressMap.compute(prefixKey,
+                (k, old) -> old != null && !old.isFinished() ? old : progress);
+        if (running != progress) {
+            return running;
+        }
+        loadExecutor.submit(() -> warmUp(progress, pageLoader, idGetter, time, unit));
+        return progress;
+    }
+
+    public Collection<WarmUpProgress> getProgress() {
+        return progressMap.values();
+    }
+
+    private <R> void warmUp(WarmUpProgress progress, Function<Long, List<R>> pageLoader, Function<R, Long> idGetter,
+                            Long time, TimeUnit unit) {
+        String prefixKey = progress.getPrefixKey();
+        long begin = System.currentTimeMillis();
+        Semaphore inFlight = new Semaphore(CACHE_WARMUP_MAX_IN_FLIGHT);
+        try {
+            long lastId = 0;
+            while (true) {
+                // 1.按id分页读取下一批数据，记录读取耗时作为这批数据的重建耗时，供XFetch提前刷新使用
+                long loadBegin = System.currentTimeMillis();
+                List<R> list = pageLoader.apply(lastId);
+                long rebuildMillis = System.currentTimeMillis() - loadBegin;
+                if (list.isEmpty()) {
+                    break;
+                }
+                Map<String, R> batch = new HashMap<>(list.size());
+                for (R r : list) {
+                    Long id = idGetter.apply(r);
+                    batch.put(prefixKey + id, r);
+                    lastId = id;
+                }
+                progress.getLoaded().addAndGet(list.size());
+
+                // 2.等待有空闲的写入名额，再交给写线程用pipeline写入
+                inFlight.acquire();
+                writeExecutor.submit(() -> {
+                    try {
+                        cacheClient.setBatchWithLogicExpire(batch, time, unit, rebuildMillis);
+                        progress.getWritten().addAndGet(batch.size());
+                    } catch (Exception e) {
+                        progress.getFailedBatches().incrementAndGet();
+                        log.error("缓存预热写入失败，prefix={}", prefixKey, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                progress.setElapsedMillis(System.currentTimeMillis() - begin);
+            }
+            // 3.等待所有批次写完
+            inFlight.acquire(CACHE_WARMUP_MAX_IN_FLIGHT);
+            inFlight.release(CACHE_WARMUP_MAX_IN_FLIGHT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("缓存预热失败，prefix={}", prefixKey, e);
+        } finally {
+            progress.setElapsedMillis(System.currentTimeMillis() - begin);
+            progress.setFinished(true);
+            log.info("缓存预热结束，prefix={}, 读取={}, 写入={}, 失败批次={}, 耗时={}ms, 吞吐={}条/秒",
+                    prefixKey, progress.getLoaded(), progress.getWritten(), progress.getFailedBatches(),
+                    progress.getElapsedMillis(), progress.getThroughput());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        loadExecutor.shutdownNow();
+        writeExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Description: Count-Min Sketch，用固定大小的计数器数组估算每个key出现的次数，线程安全
+ * 估算值只会偏大不会偏小
+ * @author: coderMartin
+ * @date: 2022-12-22
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int width;
+    /**
+     * depth行 * width列的计数器，按行展开保存
+     */
+    private final AtomicLongArray counters;
+
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * 计数加一，返回加完之后的估算值
+     */
+    public long add(String key) {
+        long[] hash = MurmurHash.hash128(key);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.incrementAndGet(index(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 估算key出现的次数：取各行计数器的最小值
+     */
+    public long estimate(String key) {
+        long[] hash = MurmurHash.hash128(key);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(index(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 衰减：所有计数器减半，让过去的访问逐渐失去权重
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            long old;
+            do {
+                old = counters.get(i);
+            } while (!counters.compareAndSet(i, old, old >> 1));
+        }
+    }
+
+    private int index(long[] hash, int row) {
+        long combined = hash[0] + row * hash[1];
+        return row * width + (int) ((combined & Long.MAX_VALUE) % width);
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 热点key探测
+ * 对CacheClient访问的key按 1/CACHE_HOTKEY_SAMPLE_RATE 抽样计数(Count-Min Sketch)，
+ * 一个统计周期内估算访问量超过阈值的key升级为热点key，在本节点保存一份短TTL的副本，直接从内存返回；
+ * 每个周期计数减半，访问量降到阈值一半以下的热点key被降级
+ * 副本保存的是编码后的字节，每次读取都解码出新对象，调用方修改返回的对象不会互相影响
+ * @author: coderMartin
+ * @date: 2022-12-22
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final CountMinSketch sketch = new CountMinSketch(CACHE_HOTKEY_SKETCH_DEPTH, CACHE_HOTKEY_SKETCH_WIDTH);
+
+    /**
+     * 当前的热点key -> 升级时间
+     */
+    private final Map<String, LocalDateTime> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key在本节点的副本
+     */
+    private final LRUCache<String, byte[]> replicas =
+            CacheUtil.newLRUCache(CACHE_HOTKEY_MAX, TimeUnit.SECONDS.toMillis(CACHE_HOTKEY_REPLICA_TTL));
+
+    private final ScheduledExecutorService decayExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("hot-key-decay-", true));
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("cache.hotkeys", hotKeys, Map::size)
+                .description("当前热点key的个数")
+                .register(meterRegistry);
+        decayExecutor.scheduleAtFixedRate(this::decay, CACHE_HOTKEY_WINDOW, CACHE_HOTKEY_WINDOW, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        decayExecutor.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问，按比例抽样
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextInt(CACHE_HOTKEY_SAMPLE_RATE) != 0) {
+            return;
+        }
+        recordSampled(key);
+    }
+
+    /**
+     * 记录一次被抽中的访问，估算值乘以抽样倍率后超过阈值的key升级为热点key
+     */
+    void recordSampled(String key) {
+        long estimate = sketch.add(key) * CACHE_HOTKEY_SAMPLE_RATE;
+        if (estimate >= CACHE_HOTKEY_THRESHOLD && !hotKeys.containsKey(key) && hotKeys.size() < CACHE_HOTKEY_MAX) {
+            hotKeys.putIfAbsent(key, LocalDateTime.now());
+            log.info("发现热点key：{}，估算访问量={}", key, estimate);
+        }
+    }
+
+    /**
+     * 获取热点key的本地副本，不是热点key或副本已过期时返回null
+     */
+    public byte[] getReplica(String key) {
+        return replicas.get(key);
+    }
+
+    /**
+     * 如果是热点key，保存一份本地副本
+     */
+    public void putReplicaIfHot(String key, byte[] bytes) {
+        if (hotKeys.containsKey(key)) {
+            replicas.put(key, bytes);
+        }
+    }
+
+    /**
+     * 缓存被删除时清除副本
+     */
+    public void evict(String key) {
+        replicas.remove(key);
+    }
+
+    /**
+     * 当前热点key及其估算访问量
+     */
+    public List<Map<String, Object>> getHotKeys() {
+        List<Map<String, Object>> list = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, since) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("estimate", sketch.estimate(key) * CACHE_HOTKEY_SAMPLE_RATE);
+            item.put("since", since);
+            list.add(item);
+        });
+        return list;
+    }
+
+    void decay() {
+        try {
+            sketch.decay();
+            // 降级：访问量降到阈值一半以下
+            hotKeys.keySet().removeIf(key -> {
+                boolean cooled = sketch.estimate(key) * CACHE_HOTKEY_SAMPLE_RATE < CACHE_HOTKEY_THRESHOLD / 2;
+                if (cooled) {
+                    replicas.remove(key);
+                    log.info("热点key降级：{}", key);
+                }
+                return cooled;
+            });
+        } catch (Exception e) {
+            log.error("热点key衰减失败", e);
+        }
+    }
+}
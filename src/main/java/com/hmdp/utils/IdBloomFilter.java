@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Description: 基于位数组的布隆过滤器，用于判断id是否「可能存在」，线程安全
+ * 判断为不存在时一定不存在；判断为存在时有一定的误判率
+ * @author: coderMartin
+ * @date: 2022-12-12
+ */
+public class IdBloomFilter {
+    /**
+     * 位数组，每个long保存64位
+     */
+    private final AtomicLongArray bits;
+    /**
+     * 位数组的总位数
+     */
+    private final long bitSize;
+    /**
+     * 哈希函数的个数
+     */
+    private final int hashCount;
+    /**
+     * 已经被置为1的位数，用于估算当前的误判率
+     */
+    private final AtomicLong bitCount = new AtomicLong();
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp                期望的误判率
+     */
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        // m = -n*ln(p)/(ln2)^2，向上取整到64的倍数
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) ((Math.max(64, m) + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words * 64;
+        // k = m/n*ln2
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    public void put(Object id) {
+        long[] hash = MurmurHash.hash128(id.toString());
+        long combined = hash[0];
+        for (int i = 0; i < hashCount; i++) {
+            // 双重哈希，用两个哈希值模拟k个哈希函数
+            long index = (combined & Long.MAX_VALUE) % bitSize;
+            if (setBit(index)) {
+                bitCount.incrementAndGet();
+            }
+            combined += hash[1];
+        }
+    }
+
+    public boolean mightContain(Object id) {
+        long[] hash = MurmurHash.hash128(id.toString());
+        long combined = hash[0];
+        for (int i = 0; i < hashCount; i++) {
+            long index = (combined & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+            combined += hash[1];
+        }
+        return true;
+    }
+
+    /**
+     * 根据已置位的比例估算当前的误判率：(置位数/总位数)^k
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount.get() / bitSize, hashCount);
+    }
+
+    /**
+     * 位数组占用的内存，单位字节
+     */
+    public long memoryBytes() {
+        return bitSize / 8;
+    }
+
+    /**
+     * 置位，返回该位之前是否为0
+     */
+    private boolean setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        while (true) {
+            long old = bits.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, old, old | mask)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * @Description: JSON格式的编解码器，即原来的RedisData格式：{"expireTime":..., "data":{...}}
+ * 读取过期时间和解码对象都需要完整解析一遍JSON
+ * @author: coderMartin
+ * @date: 2022-12-14
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value, long expireMillis, long rebuildMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        redisData.setRebuildMillis(rebuildMillis);
+        redisData.setData(value);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long readExpireMillis(byte[] bytes) {
+        RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        return redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public long readRebuildMillis(byte[] bytes) {
+        RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        return redisData.getRebuildMillis() == null ? 0 : redisData.getRebuildMillis();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), type);
+    }
+}
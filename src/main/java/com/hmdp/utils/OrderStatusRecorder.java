@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_TTL;
+
+/**
+ * @Description: 秒杀订单的处理状态，保存在Redis的hash中：status、reason、userId
+ * PENDING在秒杀脚本中与发送消息一起写入，CREATED和FAILED由订单消费者在事务结束后写入，FAILED不会覆盖CREATED，
+ * 客户端查询状态不再访问数据库
+ * @author: coderMartin
+ * @date: 2023-01-02
+ */
+@Component
+public class OrderStatusRecorder {
+
+    public static final String PENDING = "PENDING";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final DefaultRedisScript<Long> ORDER_FAILED_SCRIPT;
+
+    static {
+        ORDER_FAILED_SCRIPT = new DefaultRedisScript<>();
+        ORDER_FAILED_SCRIPT.setLocation(new ClassPathResource("order_failed.lua"));
+        ORDER_FAILED_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 分片库存模式下不能在lua脚本中写入，由调用方在发送消息前写入
+     */
+    public void pending(Long orderId, Long userId) {
+        Map<String, String> status = new HashMap<>();
+        status.put("status", PENDING);
+        status.put("userId", userId.toString());
+        String key = ORDER_STATUS_KEY + orderId;
+        stringRedisTemplate.opsForHash().putAll(key, status);
+        stringRedisTemplate.expire(key, ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 订单创建成功，在事务中调用时等到事务提交后再写入；
+     * 与userId一起写入，PENDING已经过期时用户仍然可以查到自己的订单
+     */
+    public void created(Collection<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    writeCreated(orders);
+                }
+            });
+        } else {
+            writeCreated(orders);
+        }
+    }
+
+    /**
+     * 订单创建失败，在事务中调用时等到事务结束后再写入，与CREATED的写入时机一致；
+     * 事务回滚时也要写入，例如库存不足时主动回滚。已经是CREATED的订单不会被改成FAILED
+     */
+    public void failed(Long orderId, Long userId, String reason) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    writeFailed(orderId, userId, reason);
+                }
+            });
+        } else {
+            writeFailed(orderId, userId, reason);
+        }
+    }
+
+    /**
+     * 查询订单状态，不存在或已过期时返回空Map
+     */
+    public Map<Object, Object> get(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(ORDER_STATUS_KEY + orderId);
+    }
+
+    private void writeCreated(Collection<VoucherOrder> orders) {
+        long ttlSeconds = TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : orders) {
+                String key = ORDER_STATUS_KEY + order.getId();
+                Map<String, String> status = new HashMap<>();
+                status.put("status", CREATED);
+                status.put("userId", order.getUserId().toString());
+                conn.hMSet(key, status);
+                conn.expire(key, ttlSeconds);
+            }
+            return null;
+        });
+    }
+
+    private void writeFailed(Long orderId, Long userId, String reason) {
+        stringRedisTemplate.execute(ORDER_FAILED_SCRIPT, Collections.singletonList(ORDER_STATUS_KEY + orderId),
+                reason, String.valueOf(TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL)), userId.toString());
+    }
+}
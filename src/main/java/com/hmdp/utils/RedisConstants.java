@@ -11,11 +11,125 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "shop:type:";
+    // 店铺类型列表：Redis中的过期时间(小时)、版本号key、刷新广播频道，本地快照在没收到广播时的兜底过期时间(分钟)
+    public static final Long CACHE_SHOP_TYPE_TTL = 24L;
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "shop:type:version";
+    public static final String CACHE_SHOP_TYPE_REFRESH_CHANNEL = "shop:type:refresh";
+    public static final Long CACHE_SHOP_TYPE_LOCAL_TTL = 30L;
+    // hash结构的店铺缓存：每个字段单独保存，逻辑过期时间保存在_expire字段中
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop:hash:";
+    public static final String CACHE_HASH_EXPIRE_FIELD = "_expire";
+    // true：店铺查询和更新使用hash结构的缓存，更新时只写变化的字段；false：使用整个对象序列化的缓存
+    public static final boolean CACHE_SHOP_HASH_MODE = false;
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    // 布隆过滤器：期望误判率、最小容量、从数据库重建的间隔(小时)、每批加载的id数量，以及新增id的广播频道
+    public static final double BLOOM_FPP = 0.01;
+    public static final int BLOOM_MIN_INSERTIONS = 10000;
+    public static final Long BLOOM_REBUILD_INTERVAL = 6L;
+    public static final int BLOOM_LOAD_BATCH_SIZE = 1000;
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
+    // 本地一级缓存：最大条目数、存活时间(秒)，以及跨节点失效广播的频道
+    public static final int CACHE_LOCAL_CAPACITY = 1000;
+    public static final Long CACHE_LOCAL_TTL = 10L;
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    // 提前刷新(XFetch)的系数，越大越早刷新，0表示关闭提前刷新
+    public static final double CACHE_REFRESH_BETA = 1.0;
+    // 批量写入时逻辑过期时间的随机抖动比例，0.1表示在TTL基础上随机增加0~10%
+    public static final double CACHE_EXPIRE_JITTER_RATIO = 0.1;
+
+    // 缓存预热：每批从数据库读取的条数、同时写入Redis的最大批次数
+    public static final int CACHE_WARMUP_BATCH_SIZE = 500;
+    public static final int CACHE_WARMUP_MAX_IN_FLIGHT = 4;
+
+    // 缓存重建线程池：线程数、队列容量、关闭时最多等待的秒数
+    public static final int CACHE_REBUILD_THREADS = 10;
+    public static final int CACHE_REBUILD_QUEUE_CAPACITY = 1000;
+    public static final Long CACHE_REBUILD_SHUTDOWN_TIMEOUT = 10L;
+
+    // 热点key探测：抽样比例、统计周期(秒)、一个周期内升级为热点的估算访问量、最多的热点个数、本地副本的TTL(秒)
+    public static final int CACHE_HOTKEY_SAMPLE_RATE = 10;
+    public static final Long CACHE_HOTKEY_WINDOW = 10L;
+    public static final long CACHE_HOTKEY_THRESHOLD = 1000;
+    public static final int CACHE_HOTKEY_MAX = 200;
+    public static final Long CACHE_HOTKEY_REPLICA_TTL = 5L;
+    public static final int CACHE_HOTKEY_SKETCH_DEPTH = 4;
+    public static final int CACHE_HOTKEY_SKETCH_WIDTH = 4096;
+
+    // 缓存失效日志：轮询间隔(毫秒，也是重试退避的基数)、每批处理条数、最大重试次数、延迟双删的延迟(毫秒，0表示不做第二次删除)
+    public static final long CACHE_RELAY_INTERVAL = 1000L;
+    public static final int CACHE_RELAY_BATCH_SIZE = 100;
+    public static final int CACHE_RELAY_MAX_RETRY = 8;
+    public static final long CACHE_DOUBLE_DELETE_DELAY = 500L;
+    // 缓存失效日志：认领的超时时间(毫秒)，已删除日志的保留天数、清理间隔(分钟)、每次清理的条数
+    public static final long CACHE_RELAY_CLAIM_TIMEOUT = 30000L;
+    public static final long CACHE_RELAY_RETENTION_DAYS = 7L;
+    public static final long CACHE_RELAY_PURGE_INTERVAL = 60L;
+    public static final int CACHE_RELAY_PURGE_BATCH_SIZE = 1000;
+
+    // 响应缓存：本地最多缓存的响应数、默认过期时间(秒)
+    public static final int CACHE_RESPONSE_CAPACITY = 500;
+    public static final long CACHE_RESPONSE_TTL = 5L;
+
+    // ID生成器号段模式：开启后每次从Redis预留step个序列号在本地分配，每天的计数会包含未用完的号段
+    public static final boolean ID_SEGMENT_MODE = false;
+    public static final long ID_SEGMENT_STEP = 1000L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀券的 用户id -> 订单id，对账重新发送丢失的订单时沿用原来的订单id
+    public static final String SECKILL_ORDER_ID_KEY = "seckill:orderid:";
+    // 秒杀券元数据hash：begin、end(毫秒时间戳)、status，秒杀脚本据此拒绝不在秒杀时间内的请求
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    // 秒杀结束后Redis中的秒杀券元数据、库存和下单用户集合继续保留的时间(小时)，对账只检查这段时间内的秒杀券
+    public static final long SECKILL_VOUCHER_RETENTION = 24L;
+    // 秒杀对账：执行间隔(分钟)、每批扫描的条数、批次之间的停顿(毫秒)、每秒最多修复的数量，
+    // 修复方式：NONE只报告，REENQUEUE重新发送丢失的订单，RESTORE撤销丢失的订单并归还Redis库存
+    public static final long SECKILL_RECONCILE_INTERVAL = 5L;
+    public static final int SECKILL_RECONCILE_BATCH_SIZE = 200;
+    public static final long SECKILL_RECONCILE_BATCH_PAUSE = 50L;
+    public static final double SECKILL_RECONCILE_REPAIRS_PER_SECOND = 20.0;
+    public static final String SECKILL_RECONCILE_REPAIR = "NONE";
+    // 秒杀库存的分片数，大于1时每个秒杀券的库存拆分到seckill:stock:{voucherId:分片}上
+    // 等于1时使用seckill.lua，脚本访问多个slot的key，只支持单机或哨兵模式；部署在Redis Cluster上时必须大于1
+    public static final int SECKILL_STOCK_SHARDS = 1;
+    // 秒杀订单消费者每次从消息队列读取的最大条数
+    public static final int SECKILL_ORDER_BATCH_SIZE = 100;
+    // 秒杀订单消息队列：stream名称、消费者组、分区数(大于1时按优惠券id取模分到stream.orders:0..N-1)、每个节点的消费线程数
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final int SECKILL_ORDER_PARTITIONS = 1;
+    public static final int SECKILL_ORDER_WORKERS = 1;
+    // 订单pending-list恢复：死信队列、检查间隔(秒)、消息空闲多久(秒)后可以被其他消费者认领、最大投递次数
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    public static final long SECKILL_PENDING_CHECK_INTERVAL = 10L;
+    public static final long SECKILL_PENDING_IDLE = 30L;
+    public static final int SECKILL_ORDER_MAX_DELIVERIES = 5;
+    // 消息id -> 因数据错误处理失败的次数，只有数据错误计入最大投递次数；过期时间(小时)
+    public static final String SECKILL_ORDER_FAILURE_KEY = "stream.orders.failures";
+    public static final long SECKILL_ORDER_FAILURE_TTL = 24L;
+    // 秒杀订单处理状态，过期时间(分钟)
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 30L;
+    // 秒杀券售罄标记的广播频道、本地标记的有效期(秒)
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final long SECKILL_SOLD_OUT_TTL = 60L;
+    // 秒杀准入控制：本地令牌桶每秒放行数=剩余库存*系数(不低于最小值)，按剩余库存调整的间隔(秒)，令牌桶空闲多久(秒)后移除
+    public static final double SECKILL_ADMISSION_STOCK_FACTOR = 2.0;
+    public static final double SECKILL_ADMISSION_MIN_PERMITS = 10.0;
+    public static final long SECKILL_ADMISSION_REFRESH = 1L;
+    public static final long SECKILL_ADMISSION_IDLE = 300L;
+    // 分布式滑动窗口：每个秒杀券所有节点每秒最多放行的请求数，0表示不启用
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final long SECKILL_GLOBAL_LIMIT = 0L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FOLLOW_USER_KEY = "follow:user:";
     public static final String FEED_KEY = "feed:fans:";
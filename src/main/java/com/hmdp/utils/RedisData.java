@@ -7,5 +7,7 @@ import java.time.LocalDateTime;
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    // 上一次重建缓存的耗时，毫秒
+    private Long rebuildMillis;
     private Object data;
 }
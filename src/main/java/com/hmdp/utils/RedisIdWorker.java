@@ -1,14 +1,27 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_SEGMENT_MODE;
+import static com.hmdp.utils.RedisConstants.ID_SEGMENT_STEP;
 
 /**
- * @Description:
+ * @Description: 全局ID生成器：31位时间戳(秒) + 32位序列号，序列号按天在Redis中自增
+ * 号段模式下每次用INCRBY step预留一段序列号在本地分配，用掉10%时在后台预取下一段(双buffer)
  * @author: coderMartin
  * @date: 2022-11-23
  */
@@ -23,26 +36,132 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 业务前缀 -> 当天的号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final boolean segmentMode;
+    private final long segmentStep;
+    private final Executor prefetchExecutor;
+
+    /**
+     * 有两个构造器，需要指明Spring使用这一个
+     */
+    @Autowired
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, ID_SEGMENT_MODE, ID_SEGMENT_STEP,
+                Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true)));
+    }
+
+    /**
+     * 测试时指定号段模式、步长和预取线程
+     */
+    RedisIdWorker(StringRedisTemplate stringRedisTemplate, boolean segmentMode, long segmentStep, Executor prefetchExecutor) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentMode = segmentMode;
+        this.segmentStep = segmentStep;
+        this.prefetchExecutor = prefetchExecutor;
     }
 
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
         long timeStamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
-        // key可以用来统计每天生成了多少了订单
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        // key可以用来统计每天生成了多少了订单，同一天的key缓存起来，不用每次格式化日期
+        long day = nowSecond / SECONDS_PER_DAY;
+        SegmentBuffer buffer = buffers.get(keyPrefix);
+        if (buffer == null || buffer.day != day) {
+            buffer = buffers.compute(keyPrefix, (k, old) -> old != null && old.day == day ? old : new SegmentBuffer(k, day));
+        }
+        long count = segmentMode ? buffer.nextCount() : stringRedisTemplate.opsForValue().increment(buffer.key);
 
         // 3.拼接返回
         return timeStamp << COUNT_BITS | count;
     }
 
+    /**
+     * 一段已经在Redis中预留的序列号 [start, end)
+     */
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long end;
+        // 分配到这个值时开始预取下一段
+        private final long prefetchAt;
+
+        Segment(long start, long end) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = start + Math.max(1, (end - start) / 10);
+        }
+    }
+
+    /**
+     * 某个业务某一天的号段，当前段用完后切换到预取好的下一段
+     */
+    private class SegmentBuffer {
+        private final long day;
+        private final String key;
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+
+        SegmentBuffer(String keyPrefix, long day) {
+            this.day = day;
+            this.key = "icr:" + keyPrefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        }
 
+        long nextCount() {
+            while (true) {
+                Segment segment = current;
+                if (segment != null) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count < segment.end) {
+                        // 只有分配到prefetchAt的那个线程会触发预取
+                        if (count == segment.prefetchAt) {
+                            next = CompletableFuture.supplyAsync(this::allocate, prefetchExecutor);
+                        }
+                        return count;
+                    }
+                }
+                switchSegment(segment);
+            }
+        }
+
+        /**
+         * 当前段用完，换成下一段；预取失败或者还没有预取时同步申请
+         */
+        private synchronized void switchSegment(Segment exhausted) {
+            if (current != exhausted) {
+                // 其他线程已经切换过了
+                return;
+            }
+            CompletableFuture<Segment> prefetched = next;
+            next = null;
+            Segment segment = null;
+            if (prefetched != null) {
+                try {
+                    segment = prefetched.join();
+                } catch (Exception e) {
+                    // 预取失败，下面同步申请
+                }
+            }
+            current = segment != null ? segment : allocate();
+        }
+
+        /**
+         * INCRBY key step，返回值是这一段的最后一个序列号
+         */
+        private Segment allocate() {
+            Long end = stringRedisTemplate.opsForValue().increment(key, segmentStep);
+            return new Segment(end - segmentStep + 1, end + 1);
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 本地响应缓存，保存接口最终输出的Result json字节，命中时直接写到输出流
+ * @author: coderMartin
+ * @date: 2022-12-27
+ */
+@Component
+public class ResponseBytesCache {
+
+    /**
+     * 未命中时，拦截器把缓存key放到这个请求属性中，由ResponseBodyAdvice在序列化后写入缓存
+     */
+    public static final String KEY_ATTRIBUTE = ResponseBytesCache.class.getName() + ".KEY";
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final LRUCache<String, byte[]> cache =
+            CacheUtil.newLRUCache(CACHE_RESPONSE_CAPACITY, TimeUnit.SECONDS.toMillis(CACHE_RESPONSE_TTL));
+
+    /**
+     * 订阅失效频道，数据缓存被删除时同时清除对应的响应
+     */
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                cache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public byte[] get(String key) {
+        // 不刷新最后访问时间，保证过期时间从写入时算起
+        return cache.get(key, false);
+    }
+
+    public void put(String key, byte[] body, long ttl, TimeUnit unit) {
+        cache.put(key, body, unit.toMillis(ttl));
+    }
+
+    public void evict(String key) {
+        cache.remove(key);
+    }
+}
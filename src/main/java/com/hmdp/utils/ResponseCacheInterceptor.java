@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * @Description: 响应缓存拦截器，只处理标注了@CacheResponse的GET接口
+ * 命中时直接写回缓存的字节并结束请求；未命中时把缓存key放到请求属性中，由ResponseCacheAdvice写入缓存
+ * @author: coderMartin
+ * @date: 2022-12-27
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor {
+
+    private final ResponseBytesCache responseBytesCache;
+
+    private final CacheMetrics cacheMetrics;
+
+    public ResponseCacheInterceptor(ResponseBytesCache responseBytesCache, CacheMetrics cacheMetrics) {
+        this.responseBytesCache = responseBytesCache;
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.判断是否是需要缓存的接口
+        if (!"GET".equals(request.getMethod()) || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        CacheResponse cacheResponse = ((HandlerMethod) handler).getMethodAnnotation(CacheResponse.class);
+        if (cacheResponse == null) {
+            return true;
+        }
+        // 2.结果与用户有关的接口，已登录用户不走缓存
+        if (cacheResponse.anonymousOnly() && UserHolder.getUser() != null) {
+            return true;
+        }
+
+        // 3.查询缓存
+        String key = resolveKey(request, cacheResponse);
+        String metricsPrefix = "response:" + request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        byte[] body = responseBytesCache.get(key);
+
+        // 4.未命中，交给Controller处理，由ResponseCacheAdvice写入缓存
+        if (body == null) {
+            cacheMetrics.request(metricsPrefix, CacheMetrics.MISS);
+            request.setAttribute(ResponseBytesCache.KEY_ATTRIBUTE, key);
+            return true;
+        }
+
+        // 5.命中，直接写回
+        cacheMetrics.request(metricsPrefix, CacheMetrics.LOCAL_HIT);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String resolveKey(HttpServletRequest request, CacheResponse cacheResponse) {
+        if (StrUtil.isNotEmpty(cacheResponse.key())) {
+            Map<String, String> uriVariables =
+                    (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            if (uriVariables != null && uriVariables.containsKey(cacheResponse.pathVariable())) {
+                return cacheResponse.key() + uriVariables.get(cacheResponse.pathVariable());
+            }
+        }
+        String query = request.getQueryString();
+        return query == null ? request.getRequestURI() : request.getRequestURI() + "?" + query;
+    }
+}
@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 秒杀请求的准入控制，在生成订单id和执行lua脚本之前拒绝多余的请求
+ * 1.本地令牌桶：每个秒杀券一个，速率按剩余库存在后台定时调整，请求线程不访问Redis；
+ *   新增秒杀券时直接按库存创建，本节点第一次见到的秒杀券先按最小速率创建，再由后台线程立即调整
+ * 2.分布式滑动窗口(可选)：所有节点共享每个秒杀券每秒的请求上限
+ * @author: coderMartin
+ * @date: 2023-01-03
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private static final DefaultRedisScript<Long> SLIDING_WINDOW_SCRIPT;
+
+    static {
+        SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>();
+        SLIDING_WINDOW_SCRIPT.setLocation(new ClassPathResource("sliding_window.lua"));
+        SLIDING_WINDOW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 秒杀券id -> 秒杀结束时间，结束后的秒杀券不再调整并移除令牌桶
+     */
+    private final Map<Long, Long> endTimes = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService refreshExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-admission-", true));
+
+    private Counter localRejected;
+    private Counter globalRejected;
+
+    @PostConstruct
+    private void init() {
+        localRejected = meterRegistry.counter("seckill.admission.rejected", "layer", "local");
+        globalRejected = meterRegistry.counter("seckill.admission.rejected", "layer", "global");
+        refreshExecutor.scheduleWithFixedDelay(this::refresh,
+                SECKILL_ADMISSION_REFRESH, SECKILL_ADMISSION_REFRESH, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        refreshExecutor.shutdown();
+    }
+
+    /**
+     * 判断请求是否可以进入秒杀流程
+     */
+    public boolean tryAdmit(Long voucherId) {
+        // 1.本地令牌桶，本节点第一次见到的秒杀券先按最小速率创建，由后台线程按剩余库存调整
+        TokenBucket bucket = buckets.get(voucherId);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(SECKILL_ADMISSION_MIN_PERMITS);
+            bucket = buckets.putIfAbsent(voucherId, created);
+            if (bucket == null) {
+                bucket = created;
+                refreshExecutor.execute(() -> refresh(voucherId, created));
+            }
+        }
+        if (!bucket.tryAcquire()) {
+            localRejected.increment();
+            return false;
+        }
+
+        // 2.分布式滑动窗口
+        if (SECKILL_GLOBAL_LIMIT > 0 && !tryAcquireGlobal(voucherId)) {
+            globalRejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId) {
+        long now = System.currentTimeMillis();
+        long window = now / 1000;
+        // 两个窗口的key带有相同的hash tag，在集群中位于同一个slot
+        String prefix = SECKILL_LIMIT_KEY + "{" + voucherId + "}:";
+        Long result = stringRedisTemplate.execute(SLIDING_WINDOW_SCRIPT,
+                Arrays.asList(prefix + window, prefix + (window - 1)),
+                String.valueOf(SECKILL_GLOBAL_LIMIT), String.valueOf((now % 1000) / 1000.0), "1000");
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 新增秒杀券时按库存直接创建令牌桶，请求到来时不需要再查询Redis
+     */
+    public void seed(Long voucherId, long stock, long endMillis) {
+        endTimes.put(voucherId, endMillis);
+        buckets.put(voucherId, new TokenBucket(permitsPerSecond(stock)));
+    }
+
+    /**
+     * 每秒放行的请求数：剩余库存乘以系数，不低于最小值
+     */
+    private static double permitsPerSecond(long stock) {
+        return Math.max(SECKILL_ADMISSION_MIN_PERMITS, stock * SECKILL_ADMISSION_STOCK_FACTOR);
+    }
+
+    /**
+     * 按最新的剩余库存调整令牌桶；长时间没有请求或者秒杀已经结束的秒杀券移除令牌桶
+     */
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        long idleBefore = now - TimeUnit.SECONDS.toMillis(SECKILL_ADMISSION_IDLE);
+        buckets.forEach((voucherId, bucket) -> {
+            Long end = endTimes.get(voucherId);
+            if (bucket.getLastAccessMillis() < idleBefore || (end != null && end < now)) {
+                if (buckets.remove(voucherId, bucket)) {
+                    endTimes.remove(voucherId);
+                }
+                return;
+            }
+            refresh(voucherId, bucket);
+        });
+    }
+
+    private void refresh(Long voucherId, TokenBucket bucket) {
+        try {
+            // 第一次调整时从秒杀券元数据中读取结束时间
+            if (!endTimes.containsKey(voucherId)) {
+                Object end = stringRedisTemplate.opsForHash().get(SECKILL_VOUCHER_KEY + voucherId, "end");
+                if (end != null) {
+                    endTimes.put(voucherId, Long.parseLong(end.toString()));
+                }
+            }
+            bucket.resize(permitsPerSecond(seckillStockRouter.remainingStock(voucherId)));
+        } catch (Exception e) {
+            log.warn("调整秒杀令牌桶失败, voucherId={}", voucherId, e);
+        }
+    }
+}
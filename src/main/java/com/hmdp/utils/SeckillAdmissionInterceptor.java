@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * @Description: 秒杀接口的准入拦截器，超出限制的请求直接返回429
+ * @author: coderMartin
+ * @date: 2023-01-03
+ */
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private final SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        Map<String, String> uriVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (uriVariables == null || uriVariables.get("id") == null) {
+            return true;
+        }
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(uriVariables.get("id"));
+        } catch (NumberFormatException e) {
+            // 交给Controller处理参数错误
+            return true;
+        }
+        if (seckillAdmission.tryAdmit(voucherId)) {
+            return true;
+        }
+        // 请求太多，直接拒绝
+        response.setStatus(429);
+        return false;
+    }
+}
@@ -0,0 +1,282 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.dto.ReconcileReport;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 定期对账Redis中的秒杀状态与数据库
+ * 1.SSCAN分批扫描Redis下单用户集合，查询数据库中是否有对应的订单；
+ *   消息可能还在队列中，连续两次对账都找不到订单的才认为是丢失
+ * 2.按订单id分页扫描数据库订单，检查用户是否在Redis下单集合中
+ * 3.比较 Redis库存+下单用户数 与 数据库库存+订单数
+ * 每批之间停顿，修复有速率限制，避免影响正在进行的秒杀
+ * 修复方式REENQUEUE沿用原来的订单id重新发送；RESTORE跳过消息还在pending-list或死信队列中的用户
+ * @author: coderMartin
+ * @date: 2023-01-05
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    private final ScheduledExecutorService reconcileExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-reconcile-", true));
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 每个秒杀券最近一次的对账结果
+     */
+    private final Map<Long, ReconcileReport> reports = new ConcurrentHashMap<>();
+
+    /**
+     * 上一次对账时数据库中缺少订单的用户，本次仍然缺少的才认为订单丢失
+     */
+    private final Map<Long, Set<Long>> suspects = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        reconcileExecutor.scheduleWithFixedDelay(this::reconcileAll,
+                SECKILL_RECONCILE_INTERVAL, SECKILL_RECONCILE_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * 在后台立即执行一次对账
+     * @return 已经有对账在执行时返回false
+     */
+    public boolean reconcileAsync() {
+        if (running.get()) {
+            return false;
+        }
+        reconcileExecutor.execute(this::reconcileAll);
+        return true;
+    }
+
+    public Collection<ReconcileReport> getReports() {
+        return reports.values();
+    }
+
+    private void reconcileAll() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // 修复速率限制，整轮对账共享
+            TokenBucket repairLimiter = new TokenBucket(SECKILL_RECONCILE_REPAIRS_PER_SECOND);
+            // 按voucher_id分页遍历所有秒杀券
+            long lastId = 0;
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .gt("voucher_id", lastId)
+                        .ge("end_time", LocalDateTime.now().minusHours(SECKILL_VOUCHER_RETENTION))
+                        .orderByAsc("voucher_id")
+                        .last("limit " + SECKILL_RECONCILE_BATCH_SIZE)
+                        .list();
+                for (SeckillVoucher voucher : vouchers) {
+                    lastId = voucher.getVoucherId();
+                    try {
+                        ReconcileReport report = reconcile(voucher, repairLimiter);
+                        reports.put(voucher.getVoucherId(), report);
+                        if (report.getStockDrift() != 0 || report.getMissingInDb() > 0 || report.getMissingInRedis() > 0) {
+                            log.warn("秒杀对账不一致: {}", report);
+                        }
+                    } catch (InterruptedException e) {
+                        // 应用正在关闭，恢复中断标记并结束本轮对账
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        log.error("秒杀对账异常, voucherId={}", voucher.getVoucherId(), e);
+                    }
+                }
+                if (vouchers.size() < SECKILL_RECONCILE_BATCH_SIZE) {
+                    break;
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ReconcileReport reconcile(SeckillVoucher voucher, TokenBucket repairLimiter) throws InterruptedException {
+        Long voucherId = voucher.getVoucherId();
+        ReconcileReport report = new ReconcileReport();
+        report.setVoucherId(voucherId);
+        report.setCheckTime(LocalDateTime.now());
+
+        // 1.Redis下单用户 -> 数据库订单
+        Set<Long> missing = new HashSet<>();
+        long redisBuyers = 0;
+        for (String orderKey : seckillStockRouter.orderKeys(voucherId)) {
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                    .scan(orderKey, ScanOptions.scanOptions().count(SECKILL_RECONCILE_BATCH_SIZE).build())) {
+                List<Long> batch = new ArrayList<>(SECKILL_RECONCILE_BATCH_SIZE);
+                while (cursor.hasNext()) {
+                    batch.add(Long.valueOf(cursor.next()));
+                    if (batch.size() == SECKILL_RECONCILE_BATCH_SIZE) {
+                        missing.addAll(usersWithoutOrder(voucherId, batch));
+                        redisBuyers += batch.size();
+                        batch.clear();
+                        Thread.sleep(SECKILL_RECONCILE_BATCH_PAUSE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    missing.addAll(usersWithoutOrder(voucherId, batch));
+                    redisBuyers += batch.size();
+                }
+            }
+        }
+        // 两次都缺少的才是丢失的订单，其余的留到下一次确认
+        Set<Long> previous = suspects.getOrDefault(voucherId, new HashSet<>());
+        Set<Long> lost = missing.stream().filter(previous::contains).collect(Collectors.toSet());
+        suspects.put(voucherId, missing);
+        report.setRedisBuyers(redisBuyers);
+        report.setMissingInDb(lost.size());
+
+        // 2.数据库订单 -> Redis下单用户，按订单id分页
+        long dbOrders = 0;
+        long missingInRedis = 0;
+        long lastOrderId = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId).gt("id", lastOrderId)
+                    .orderByAsc("id")
+                    .last("limit " + SECKILL_RECONCILE_BATCH_SIZE)
+                    .list();
+            if (orders.isEmpty()) {
+                break;
+            }
+            dbOrders += orders.size();
+            lastOrderId = orders.get(orders.size() - 1).getId();
+            missingInRedis += usersNotInRedis(voucherId, orders);
+            if (orders.size() < SECKILL_RECONCILE_BATCH_SIZE) {
+                break;
+            }
+            Thread.sleep(SECKILL_RECONCILE_BATCH_PAUSE);
+        }
+        report.setDbOrders(dbOrders);
+        report.setMissingInRedis(missingInRedis);
+
+        // 3.库存
+        report.setRedisStock(seckillStockRouter.remainingStock(voucherId));
+        SeckillVoucher latest = seckillVoucherService.getById(voucherId);
+        report.setDbStock(latest == null ? 0 : latest.getStock());
+        report.setStockDrift(report.getRedisStock() + report.getRedisBuyers() - report.getDbStock() - report.getDbOrders());
+
+        // 4.修复丢失的订单
+        report.setRepaired(repair(voucherId, lost, repairLimiter));
+        return report;
+    }
+
+    /**
+     * 一批Redis下单用户中，数据库里没有订单的用户
+     */
+    private Set<Long> usersWithoutOrder(Long voucherId, List<Long> userIds) {
+        Set<Long> withOrder = voucherOrderService.query()
+                .select("user_id")
+                .eq("voucher_id", voucherId).in("user_id", userIds)
+                .list()
+                .stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        return userIds.stream().filter(id -> !withOrder.contains(id)).collect(Collectors.toSet());
+    }
+
+    /**
+     * 一批数据库订单中，用户不在Redis下单集合中的数量
+     */
+    private long usersNotInRedis(Long voucherId, List<VoucherOrder> orders) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : orders) {
+                conn.sIsMember(seckillStockRouter.orderKeyOfUser(voucherId, order.getUserId()), order.getUserId().toString());
+            }
+            return null;
+        });
+        return results.stream().filter(Boolean.FALSE::equals).count();
+    }
+
+    private long repair(Long voucherId, Set<Long> lost, TokenBucket repairLimiter) {
+        if ("NONE".equals(SECKILL_RECONCILE_REPAIR) || lost.isEmpty()) {
+            return 0;
+        }
+        // 消息还在pending-list或死信队列中的订单没有丢失，撤销会和消费者重复处理，先跳过
+        Set<Long> inFlight = "RESTORE".equals(SECKILL_RECONCILE_REPAIR)
+                ? voucherOrderService.inFlightUsers(voucherId) : Collections.emptySet();
+        long repaired = 0;
+        for (Long userId : lost) {
+            if (inFlight.contains(userId)) {
+                log.info("订单消息仍在处理中，跳过撤销, voucherId={}, userId={}", voucherId, userId);
+                continue;
+            }
+            // 超过修复速率，剩下的留到下一次对账
+            if (!repairLimiter.tryAcquire()) {
+                break;
+            }
+            if ("REENQUEUE".equals(SECKILL_RECONCILE_REPAIR)) {
+                long orderId = voucherOrderService.reenqueueOrder(voucherId, userId);
+                log.warn("重新发送丢失的订单, voucherId={}, userId={}, orderId={}", voucherId, userId, orderId);
+                repaired++;
+            } else if ("RESTORE".equals(SECKILL_RECONCILE_REPAIR)) {
+                if (seckillStockRouter.release(voucherId, userId)) {
+                    log.warn("撤销丢失的订单并归还库存, voucherId={}, userId={}", voucherId, userId);
+                    repaired++;
+                }
+            }
+            suspects.get(voucherId).remove(userId);
+        }
+        // 归还了库存，清除售罄标记
+        if (repaired > 0 && "RESTORE".equals(SECKILL_RECONCILE_REPAIR)) {
+            soldOutRegistry.clear(voucherId);
+        }
+        return repaired;
+    }
+}
@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description: 分片库存：把一个秒杀券的库存拆到K个子key上，分散单个热点key的压力
+ * 子key使用{voucherId:分片}作为hash tag，同一分片的库存和下单用户集合在集群中位于同一个slot
+ * 用户按id路由到主分片，一人一单的校验和占位都在主分片上原子完成；主分片库存不足时按固定顺序到其他分片扣减，
+ * 全部不足时撤销占位
+ * 只有占位和扣减是原子的；秒杀时间的校验和订单消息的发送由调用方在扣减前后分别执行，不在同一个原子操作中
+ * @author: coderMartin
+ * @date: 2022-12-30
+ */
+@Component
+public class SeckillStockRouter {
+
+    /**
+     * 扣减成功
+     */
+    public static final int SUCCESS = 0;
+    /**
+     * 库存不足
+     */
+    public static final int SOLD_OUT = 1;
+    /**
+     * 重复下单
+     */
+    public static final int DUPLICATE = 2;
+    /**
+     * 主分片库存不足，已占住下单资格
+     */
+    private static final int HOME_EMPTY = 3;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_DECR_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_RESTORE_SCRIPT;
+
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+
+        STOCK_DECR_SCRIPT = new DefaultRedisScript<>();
+        STOCK_DECR_SCRIPT.setLocation(new ClassPathResource("stock_decr.lua"));
+        STOCK_DECR_SCRIPT.setResultType(Long.class);
+
+        STOCK_RESTORE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_RESTORE_SCRIPT.setLocation(new ClassPathResource("stock_restore.lua"));
+        STOCK_RESTORE_SCRIPT.setResultType(Long.class);
+    }
+
+    public boolean isSharded() {
+        return SECKILL_STOCK_SHARDS > 1;
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public int homeShard(Long userId) {
+        return (int) (userId % SECKILL_STOCK_SHARDS);
+    }
+
+    /**
+     * 秒杀券所有的下单用户集合
+     */
+    public List<String> orderKeys(Long voucherId) {
+        if (!isSharded()) {
+            return Collections.singletonList(SECKILL_ORDER_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(SECKILL_STOCK_SHARDS);
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            keys.add(orderKey(voucherId, shard));
+        }
+        return keys;
+    }
+
+    /**
+     * 用户所在的下单用户集合
+     */
+    public String orderKeyOfUser(Long voucherId, Long userId) {
+        return isSharded() ? orderKey(voucherId, homeShard(userId)) : SECKILL_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 与用户的下单集合在同一个slot的库存key
+     */
+    public String stockKeyOfUser(Long voucherId, Long userId) {
+        return isSharded() ? stockKey(voucherId, homeShard(userId)) : SECKILL_STOCK_KEY + voucherId;
+    }
+
+    /**
+     * 扣减库存并校验一人一单
+     * @param deadline 下单用户集合的过期时间(毫秒)，见deadlineOf，0表示不设置
+     * @return SUCCESS、SOLD_OUT或DUPLICATE
+     */
+    public int tryAcquire(Long voucherId, Long userId, long deadline) {
+        // 1.在主分片上校验一人一单、占位并尝试扣减
+        int home = homeShard(userId);
+        Long result = stringRedisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home)),
+                userId.toString(), String.valueOf(deadline));
+        if (result.intValue() != HOME_EMPTY) {
+            return result.intValue();
+        }
+
+        // 2.主分片库存不足，从下一个分片开始依次尝试，固定的顺序让不同主分片的请求分散到不同的分片上
+        for (int i = 1; i < SECKILL_STOCK_SHARDS; i++) {
+            int shard = (home + i) % SECKILL_STOCK_SHARDS;
+            Long decr = stringRedisTemplate.execute(STOCK_DECR_SCRIPT,
+                    Collections.singletonList(stockKey(voucherId, shard)));
+            if (decr != null && decr == 1L) {
+                return SUCCESS;
+            }
+        }
+
+        // 3.所有分片都没有库存，撤销占位
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        return SOLD_OUT;
+    }
+
+    /**
+     * 撤销tryAcquire成功的扣减：把用户移出主分片的下单集合，并把库存还给主分片
+     * 扣减可能发生在其他分片，还到主分片不影响总库存；两个key在同一个slot，脚本原子执行
+     *
+     * @return 是否撤销成功，用户不在下单集合中时返回false
+     */
+    public boolean release(Long voucherId, Long userId) {
+        // 库存为0的分片没有库存key，归还时才创建，需要同时设置过期时间
+        Long result = stringRedisTemplate.execute(STOCK_RESTORE_SCRIPT,
+                Arrays.asList(orderKeyOfUser(voucherId, userId), stockKeyOfUser(voucherId, userId)),
+                userId.toString(), String.valueOf(deadlineOf(voucherId)));
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 查询Redis中的剩余库存，分片模式下是所有分片的库存之和
+     */
+    public long remainingStock(Long voucherId) {
+        List<String> keys = new ArrayList<>();
+        if (isSharded()) {
+            for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+                keys.add(stockKey(voucherId, shard));
+            }
+        } else {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+        }
+        long stock = 0;
+        // 分片的key不在同一个slot，逐个查询
+        for (String key : keys) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            if (value != null) {
+                stock += Math.max(0, Long.parseLong(value));
+            }
+        }
+        return stock;
+    }
+
+    /**
+     * 秒杀券的库存、下单用户集合和订单id在秒杀结束SECKILL_VOUCHER_RETENTION小时后过期
+     *
+     * @param end 元数据中的结束时间(毫秒)，没有元数据时返回0，表示不设置过期时间
+     */
+    public long deadlineOf(Object end) {
+        return end == null ? 0 : Long.parseLong(end.toString()) + TimeUnit.HOURS.toMillis(SECKILL_VOUCHER_RETENTION);
+    }
+
+    /**
+     * 按元数据中的结束时间计算过期时间
+     */
+    public long deadlineOf(Long voucherId) {
+        return deadlineOf(stringRedisTemplate.opsForHash().get(SECKILL_VOUCHER_KEY + voucherId, "end"));
+    }
+
+    /**
+     * 设置已经存在的库存、下单用户集合和订单id的过期时间；之后才创建的key由创建它的脚本或调用方设置
+     */
+    public void expireAt(Long voucherId, long expireMillis) {
+        Date date = new Date(expireMillis);
+        if (isSharded()) {
+            for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+                stringRedisTemplate.expireAt(stockKey(voucherId, shard), date);
+            }
+        } else {
+            stringRedisTemplate.expireAt(SECKILL_STOCK_KEY + voucherId, date);
+        }
+        for (String orderKey : orderKeys(voucherId)) {
+            stringRedisTemplate.expireAt(orderKey, date);
+        }
+        stringRedisTemplate.expireAt(SECKILL_ORDER_ID_KEY + voucherId, date);
+    }
+
+    /**
+     * 把库存平均分到各个分片，余数分给前面的分片
+     */
+    public void addStock(Long voucherId, int count) {
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            int part = count / SECKILL_STOCK_SHARDS + (shard < count % SECKILL_STOCK_SHARDS ? 1 : 0);
+            if (part > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, shard), part);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL;
+
+/**
+ * @Description: 本地的秒杀券售罄标记，售罄后的请求在本节点直接拒绝，不再生成订单id和执行lua脚本
+ * 标记和清除都通过Redis发布订阅同步到所有节点；标记带有过期时间，清除消息丢失时也能自动恢复
+ * @author: coderMartin
+ * @date: 2022-12-29
+ */
+@Component
+public class SoldOutRegistry {
+
+    private static final String SOLD_OUT = "1";
+    private static final String REPLENISHED = "0";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 优惠券id -> 标记的过期时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅售罄频道，消息格式：状态|优惠券id
+     */
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|");
+            Long voucherId = Long.valueOf(parts[1]);
+            if (SOLD_OUT.equals(parts[0])) {
+                markLocal(voucherId);
+            } else {
+                soldOut.remove(voucherId);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            // 标记已过期，放行请求重新由lua脚本判断库存
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * lua脚本返回库存不足时调用，标记本节点并通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        // 已经标记过的不再重复广播
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        markLocal(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + "|" + voucherId);
+    }
+
+    /**
+     * 补充库存后调用，清除所有节点的售罄标记
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, REPLENISHED + "|" + voucherId);
+    }
+
+    private void markLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(SECKILL_SOLD_OUT_TTL));
+    }
+}
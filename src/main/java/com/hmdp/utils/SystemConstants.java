@@ -1,8 +1,14 @@
 package com.hmdp.utils;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 public class SystemConstants {
     public static final String IMAGE_UPLOAD_DIR = "F:\\javacode\\nginx-front\\nginx-1.18.0\\html\\hmdp\\imgs";
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 管理员用户id，缓存预热、秒杀对账、库存调整等运维接口只允许管理员调用
+    public static final Set<Long> ADMIN_USER_IDS = Collections.unmodifiableSet(new HashSet<>(Collections.singletonList(1L)));
 }
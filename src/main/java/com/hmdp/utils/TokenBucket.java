@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import java.util.function.LongSupplier;
+
+/**
+ * @Description: 令牌桶，按固定速率补充令牌，容量和速率可以在运行时调整
+ * @author: coderMartin
+ * @date: 2023-01-03
+ */
+public class TokenBucket {
+
+    private double capacity;
+    private double permitsPerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+    private volatile long lastAccessMillis;
+    /**
+     * 纳秒时钟，测试时可以替换
+     */
+    private final LongSupplier nanoClock;
+
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.capacity = permitsPerSecond;
+        this.permitsPerSecond = permitsPerSecond;
+        this.tokens = permitsPerSecond;
+        this.lastRefillNanos = nanoClock.getAsLong();
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public synchronized boolean tryAcquire() {
+        lastAccessMillis = System.currentTimeMillis();
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * 调整速率，容量等于一秒的令牌数，多出来的令牌直接丢弃
+     */
+    public synchronized void resize(double permitsPerSecond) {
+        refill();
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = permitsPerSecond;
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1e9 * permitsPerSecond);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,5 @@
+-- 这里的 KEYS[1] 就是缓存的key，ARGV 是完整对象的 字段1 值1 字段2 值2 ...
+-- 先删除旧的hash再整体写入，原子执行，避免已经变成null的字段残留在缓存中
+redis.call('DEL', KEYS[1])
+redis.call('HSET', KEYS[1], unpack(ARGV))
+return 1
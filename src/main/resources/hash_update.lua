@@ -0,0 +1,8 @@
+-- 这里的 KEYS[1] 就是缓存的key，ARGV 是要更新的 字段1 值1 字段2 值2 ...
+-- 缓存不存在时不写入，避免只写了部分字段的hash被当成完整的缓存
+if (redis.call('EXISTS', KEYS[1]) == 0) then
+    return 0
+end
+-- 存在，只更新变化的字段
+redis.call('HSET', KEYS[1], unpack(ARGV))
+return 1
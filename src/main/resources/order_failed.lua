@@ -0,0 +1,8 @@
+-- 记录订单失败，已经是CREATED的订单不能被改成FAILED
+-- KEYS[1] 订单状态key，ARGV[1] 失败原因，ARGV[2] 过期时间(秒)，ARGV[3] 用户id
+if (redis.call('hget', KEYS[1], 'status') == 'CREATED') then
+    return 0
+end
+redis.call('hset', KEYS[1], 'status', 'FAILED', 'reason', ARGV[1], 'userId', ARGV[3])
+redis.call('expire', KEYS[1], ARGV[2])
+return 1
@@ -1,3 +1,5 @@
+-- 单key库存模式的秒杀脚本：所有key都由ARGV在脚本内拼接，分布在不同的slot，
+-- 只能在单机或哨兵模式的Redis上执行；部署在Redis Cluster上时需要开启分片库存，使用seckill_shard.lua
 -- 1.参数列表
 -- 1.1.优惠券id
 local voucherId = ARGV[1]
@@ -5,16 +7,45 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.订单消息队列，开启分区时由调用方按优惠券id选择分区
+local streamKey = ARGV[4] or 'stream.orders'
+-- 1.5.订单状态的过期时间(秒)
+local statusTtl = ARGV[5] or '1800'
+-- 1.6.当前时间(毫秒)，由调用方传入
+local now = tonumber(ARGV[6] or '0')
+-- 1.7.秒杀结束后数据的保留时间(毫秒)，下单用户集合和订单id在 结束时间 + 保留时间 过期
+local retention = tonumber(ARGV[7] or '0')
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2.订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3.订单状态key
+local statusKey = 'order:status:' .. orderId
+-- 2.4.秒杀券元数据key
+local metaKey = 'seckill:voucher:' .. voucherId
+-- 2.5.用户id -> 订单id
+local orderIdKey = 'seckill:orderid:' .. voucherId
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+-- 3.0.判断秒杀券状态和秒杀时间 HMGET metaKey begin end status，没有元数据的秒杀券不校验
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'status')
+if (meta[3] and meta[3] ~= '1') then
+    -- 已下架，返回5
+    return 5
+end
+if (meta[1] and now < tonumber(meta[1])) then
+    -- 秒杀尚未开始，返回3
+    return 3
+end
+if (meta[2] and now > tonumber(meta[2])) then
+    -- 秒杀已经结束，返回4
+    return 4
+end
+-- 3.1.判断库存是否充足 get stockKey，库存key不存在(例如秒杀结束后已过期)按库存不足处理
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
@@ -27,6 +58,17 @@ end
 redis.call('incrby', stockKey, -1)
 -- 3.5.下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.5.1.记录用户的订单id，对账时据此找回丢失的订单
+redis.call('hset', orderIdKey, userId, orderId)
+-- 3.5.2.第一个用户下单时才创建这两个key，创建秒杀券时设置不了过期时间，在这里设置
+if (meta[2]) then
+    local expireAt = tonumber(meta[2]) + retention
+    redis.call('pexpireat', orderKey, expireAt)
+    redis.call('pexpireat', orderIdKey, expireAt)
+end
+-- 3.6.记录订单状态为处理中
+redis.call('hset', statusKey, 'status', 'PENDING', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+-- 3.7.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 return 0
\ No newline at end of file
@@ -0,0 +1,21 @@
+-- 分片库存模式下在用户的主分片上执行，KEYS[1]、KEYS[2]带有相同的hash tag，在集群中位于同一个slot
+-- KEYS[1] 主分片的库存key，KEYS[2] 主分片的下单用户集合，ARGV[1] 用户id，ARGV[2] 下单用户集合的过期时间(毫秒)，0表示不设置
+
+-- 1.判断用户是否下单 SISMEMBER orderKey userId
+if (redis.call('sismember', KEYS[2], ARGV[1]) == 1) then
+    -- 存在，说明是重复下单，返回2
+    return 2
+end
+-- 2.先占住下单资格，保证同一用户的并发请求只有一个能继续
+redis.call('sadd', KEYS[2], ARGV[1])
+if (tonumber(ARGV[2]) > 0) then
+    redis.call('pexpireat', KEYS[2], ARGV[2])
+end
+-- 3.主分片有库存，直接扣减，返回0
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock ~= nil and stock > 0) then
+    redis.call('incrby', KEYS[1], -1)
+    return 0
+end
+-- 4.主分片库存不足，返回3，由调用方到其他分片扣减
+return 3
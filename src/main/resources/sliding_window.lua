@@ -0,0 +1,16 @@
+-- 滑动窗口计数限流，用上一个窗口的计数按剩余比例加权近似滑动窗口
+-- KEYS[1] 当前窗口的计数key，KEYS[2] 上一个窗口的计数key
+-- ARGV[1] 窗口内允许的请求数，ARGV[2] 当前窗口已经过去的比例(0~1)，ARGV[3] 窗口长度(毫秒)
+
+local limit = tonumber(ARGV[1])
+local current = tonumber(redis.call('get', KEYS[1]) or '0')
+local previous = tonumber(redis.call('get', KEYS[2]) or '0')
+-- 1.估算最近一个窗口长度内的请求数
+if (previous * (1 - tonumber(ARGV[2])) + current >= limit) then
+    -- 2.超过限制，返回0
+    return 0
+end
+-- 3.计数，保留两个窗口长度
+redis.call('incr', KEYS[1])
+redis.call('pexpire', KEYS[1], tonumber(ARGV[3]) * 2)
+return 1
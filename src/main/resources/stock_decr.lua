@@ -0,0 +1,7 @@
+-- KEYS[1] 库存key，库存充足时扣减1并返回1，否则返回0
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock ~= nil and stock > 0) then
+    redis.call('incrby', KEYS[1], -1)
+    return 1
+end
+return 0
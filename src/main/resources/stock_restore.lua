@@ -0,0 +1,10 @@
+-- 撤销一个已经丢失的秒杀订单：把用户移出下单集合并归还库存
+-- KEYS[1] 下单用户集合，KEYS[2] 库存key，ARGV[1] 用户id，ARGV[2] 库存key的过期时间(毫秒)，0表示不设置
+if (redis.call('srem', KEYS[1], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[2], 1)
+    if (tonumber(ARGV[2] or '0') > 0) then
+        redis.call('pexpireat', KEYS[2], ARGV[2])
+    end
+    return 1
+end
+return 0
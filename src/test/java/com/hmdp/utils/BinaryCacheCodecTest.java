@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Description: BinaryCacheCodec的编解码测试，不依赖Spring容器
+ * @author: coderMartin
+ * @date: 2023-01-08
+ */
+class BinaryCacheCodecTest {
+
+    private final CacheCodec codec = new BinaryCacheCodec();
+
+    private Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setArea("大关")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setScore(37);
+    }
+
+    @Test
+    void roundTrip() {
+        byte[] bytes = codec.encode(shop(), 1700000000123L, 42);
+
+        assertEquals(1700000000123L, codec.readExpireMillis(bytes));
+        assertEquals(42, codec.readRebuildMillis(bytes));
+        Shop decoded = codec.decode(bytes, Shop.class);
+        assertEquals(1L, decoded.getId());
+        assertEquals("103茶餐厅", decoded.getName());
+        assertEquals(120.149192, decoded.getX());
+        assertEquals(80L, decoded.getAvgPrice());
+    }
+
+    @Test
+    void rebuildMillisIsClamped() {
+        assertEquals(0, codec.readRebuildMillis(codec.encode(shop(), 1L, -5)));
+        assertEquals(Integer.MAX_VALUE, codec.readRebuildMillis(codec.encode(shop(), 1L, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void readsV1Entries() {
+        // v1格式：[0x01][8字节过期时间][json]，没有重建耗时
+        byte[] json = "{\"id\":2,\"name\":\"v1\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = ByteBuffer.allocate(1 + Long.BYTES + json.length)
+                .put((byte) 0x01).putLong(99L).put(json).array();
+
+        assertEquals(99L, codec.readExpireMillis(bytes));
+        assertEquals(0, codec.readRebuildMillis(bytes));
+        assertEquals("v1", codec.decode(bytes, Shop.class).getName());
+    }
+
+    @Test
+    void readsLegacyJsonEntries() {
+        byte[] bytes = new JsonCacheCodec().encode(shop(), 1700000000123L, 7);
+
+        assertEquals(1700000000123L, codec.readExpireMillis(bytes));
+        assertEquals(7, codec.readRebuildMillis(bytes));
+        assertEquals("103茶餐厅", codec.decode(bytes, Shop.class).getName());
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 对比JSON和二进制两种编解码器处理Shop缓存的性能
+ * 运行方式：在IDE中直接运行main方法，-prof gc 可以查看每次操作的内存分配
+ * @author: coderMartin
+ * @date: 2022-12-14
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec binaryCodec = new BinaryCacheCodec();
+
+    private Shop shop;
+    private long expireMillis;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setup() {
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        expireMillis = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30);
+        jsonBytes = jsonCodec.encode(shop, expireMillis, 20);
+        binaryBytes = binaryCodec.encode(shop, expireMillis, 20);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return jsonCodec.encode(shop, expireMillis, 20);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return binaryCodec.encode(shop, expireMillis, 20);
+    }
+
+    @Benchmark
+    public long jsonReadExpire() {
+        return jsonCodec.readExpireMillis(jsonBytes);
+    }
+
+    @Benchmark
+    public long binaryReadExpire() {
+        return binaryCodec.readExpireMillis(binaryBytes);
+    }
+
+    @Benchmark
+    public Shop jsonDecode() {
+        return jsonCodec.decode(jsonBytes, Shop.class);
+    }
+
+    @Benchmark
+    public Shop binaryDecode() {
+        return binaryCodec.decode(binaryBytes, Shop.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Description: CountMinSketch的计数、估算和衰减测试
+ * @author: coderMartin
+ * @date: 2023-01-08
+ */
+class CountMinSketchTest {
+
+    @Test
+    void addReturnsEstimate() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, sketch.add("cache:shop:1"));
+        }
+        assertEquals(10, sketch.estimate("cache:shop:1"));
+        assertEquals(0, sketch.estimate("cache:shop:2"));
+    }
+
+    @Test
+    void neverUnderestimates() {
+        // 宽度很小，必然有哈希冲突，估算值只会偏大
+        CountMinSketch sketch = new CountMinSketch(2, 8);
+        for (int k = 0; k < 100; k++) {
+            for (int i = 0; i <= k % 5; i++) {
+                sketch.add("key" + k);
+            }
+        }
+        for (int k = 0; k < 100; k++) {
+            assertTrue(sketch.estimate("key" + k) >= k % 5 + 1);
+        }
+    }
+
+    @Test
+    void decayHalvesCounters() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 0; i < 7; i++) {
+            sketch.add("cache:shop:1");
+        }
+        sketch.decay();
+        assertEquals(3, sketch.estimate("cache:shop:1"));
+        sketch.decay();
+        sketch.decay();
+        assertEquals(0, sketch.estimate("cache:shop:1"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOTKEY_SAMPLE_RATE;
+import static com.hmdp.utils.RedisConstants.CACHE_HOTKEY_THRESHOLD;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Description: HotKeyDetector的升级、降级阈值测试，直接调用recordSampled绕过随机抽样
+ * @author: coderMartin
+ * @date: 2023-01-08
+ */
+class HotKeyDetectorTest {
+
+    private static final String KEY = "cache:shop:1";
+    private static final byte[] BYTES = {1, 2, 3};
+
+    /**
+     * 估算值刚好达到阈值需要的抽样次数
+     */
+    private static final int SAMPLES_TO_HOT = (int) (CACHE_HOTKEY_THRESHOLD / CACHE_HOTKEY_SAMPLE_RATE);
+
+    private final HotKeyDetector detector = new HotKeyDetector();
+
+    private void sample(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.recordSampled(key);
+        }
+    }
+
+    @Test
+    void promotesOnlyAtThreshold() {
+        sample(KEY, SAMPLES_TO_HOT - 1);
+        detector.putReplicaIfHot(KEY, BYTES);
+        assertNull(detector.getReplica(KEY));
+        assertTrue(detector.getHotKeys().isEmpty());
+
+        sample(KEY, 1);
+        detector.putReplicaIfHot(KEY, BYTES);
+        assertArrayEquals(BYTES, detector.getReplica(KEY));
+        assertEquals(1, detector.getHotKeys().size());
+        assertEquals(KEY, detector.getHotKeys().get(0).get("key"));
+        assertEquals(CACHE_HOTKEY_THRESHOLD, detector.getHotKeys().get(0).get("estimate"));
+    }
+
+    @Test
+    void evictRemovesReplica() {
+        sample(KEY, SAMPLES_TO_HOT);
+        detector.putReplicaIfHot(KEY, BYTES);
+        detector.evict(KEY);
+        assertNull(detector.getReplica(KEY));
+    }
+
+    @Test
+    void demotesBelowHalfThreshold() {
+        sample(KEY, SAMPLES_TO_HOT);
+        detector.putReplicaIfHot(KEY, BYTES);
+
+        // 第一次衰减后刚好是阈值的一半，仍然是热点
+        detector.decay();
+        assertEquals(1, detector.getHotKeys().size());
+        assertArrayEquals(BYTES, detector.getReplica(KEY));
+
+        // 第二次衰减后低于阈值一半，降级并清除副本
+        detector.decay();
+        assertTrue(detector.getHotKeys().isEmpty());
+        assertNull(detector.getReplica(KEY));
+    }
+}
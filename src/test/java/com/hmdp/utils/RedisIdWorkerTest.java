@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Description: RedisIdWorker号段模式的测试，Redis用Mockito模拟，预取在调用线程中同步执行
+ * @author: coderMartin
+ * @date: 2023-01-08
+ */
+class RedisIdWorkerTest {
+
+    private static final long STEP = 10;
+
+    private ValueOperations<String, String> valueOps;
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(valueOps);
+        idWorker = new RedisIdWorker(template, true, STEP, Runnable::run);
+    }
+
+    private static long count(long id) {
+        return id & 0xFFFFFFFFL;
+    }
+
+    @Test
+    void switchesToPrefetchedSegment() {
+        when(valueOps.increment(anyString(), eq(STEP))).thenReturn(10L, 20L, 30L);
+
+        for (long expected = 1; expected <= 25; expected++) {
+            assertEquals(expected, count(idWorker.nextId("order")));
+        }
+        // 第一段同步申请，之后每段在用到10%时预取：25个id用到第三段，第三段又预取了第四段
+        verify(valueOps, times(4)).increment(anyString(), eq(STEP));
+    }
+
+    @Test
+    void fallsBackToSyncAllocationWhenPrefetchFails() {
+        when(valueOps.increment(anyString(), eq(STEP)))
+                .thenReturn(10L)
+                .thenThrow(new RedisConnectionFailureException("prefetch failed"))
+                .thenReturn(20L);
+
+        for (long expected = 1; expected <= 11; expected++) {
+            assertEquals(expected, count(idWorker.nextId("order")));
+        }
+        // 一次成功的申请、一次失败的预取、一次切换时的同步申请
+        verify(valueOps, times(3)).increment(anyString(), eq(STEP));
+    }
+
+    @Test
+    void countsAreMonotonicWithinNode() {
+        when(valueOps.increment(anyString(), eq(STEP))).thenReturn(10L, 20L, 30L, 40L, 50L);
+
+        long previous = 0;
+        for (int i = 0; i < 50; i++) {
+            long count = count(idWorker.nextId("order"));
+            assertTrue(count > previous, "序列号必须递增: " + previous + " -> " + count);
+            previous = count;
+        }
+        assertEquals(50, previous);
+    }
+}
@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 对比/shop/{id}缓存命中时两种响应方式的性能：
+ * 现有方式：从Redis读到的字节解码成Shop，包装成Result，再由Jackson序列化写到输出流
+ * 响应缓存：直接把缓存的Result字节写到输出流
+ * 运行方式：在IDE中直接运行main方法，-prof gc 可以查看每次操作的内存分配
+ * @author: coderMartin
+ * @date: 2022-12-27
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseCacheBenchmark {
+
+    private final CacheCodec codec = new BinaryCacheCodec();
+
+    // 与Spring MVC使用相同配置的ObjectMapper
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    // 模拟servlet输出流
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+
+    private byte[] redisBytes;
+    private byte[] responseBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        redisBytes = codec.encode(shop, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30), 20);
+        responseBytes = objectMapper.writeValueAsBytes(Result.ok(shop));
+    }
+
+    @Benchmark
+    public int decodeAndSerialize() throws IOException {
+        out.reset();
+        Shop shop = codec.decode(redisBytes, Shop.class);
+        objectMapper.writeValue(out, Result.ok(shop));
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeCachedBytes() throws IOException {
+        out.reset();
+        out.write(responseBytes);
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ResponseCacheBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
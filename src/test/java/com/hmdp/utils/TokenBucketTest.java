@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Description: TokenBucket的突发、补充和调整速率测试，用可控的时钟代替System.nanoTime
+ * @author: coderMartin
+ * @date: 2023-01-08
+ */
+class TokenBucketTest {
+
+    private final AtomicLong nanos = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    private void advanceMillis(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private int drain(TokenBucket bucket) {
+        int acquired = 0;
+        while (bucket.tryAcquire()) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    @Test
+    void burstUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(10, nanos::get);
+        assertEquals(10, drain(bucket));
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillsAtRate() {
+        TokenBucket bucket = new TokenBucket(10, nanos::get);
+        drain(bucket);
+
+        // 100ms补充1个令牌
+        advanceMillis(99);
+        assertFalse(bucket.tryAcquire());
+        advanceMillis(1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        // 半秒补充5个
+        advanceMillis(500);
+        assertEquals(5, drain(bucket));
+    }
+
+    @Test
+    void refillNeverExceedsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, nanos::get);
+        drain(bucket);
+        advanceMillis(10_000);
+        assertEquals(10, drain(bucket));
+    }
+
+    @Test
+    void resizeDropsExtraTokens() {
+        TokenBucket bucket = new TokenBucket(10, nanos::get);
+        bucket.resize(4);
+        assertEquals(4, drain(bucket));
+
+        // 调大速率后按新速率补充，容量也随之变大
+        bucket.resize(20);
+        advanceMillis(1000);
+        assertEquals(20, drain(bucket));
+    }
+}